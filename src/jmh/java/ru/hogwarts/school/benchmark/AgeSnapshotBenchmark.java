@@ -0,0 +1,91 @@
+package ru.hogwarts.school.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.service.AgeSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// сравнивает снимок возрастов с прежним путём: список сущностей из findAll и фильтрация стримом.
+// время запроса к базе в прежний путь не входит, так что это нижняя оценка его стоимости
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AgeSnapshotBenchmark {
+
+    @Param({"1000", "100000"})
+    private int students;
+
+    private List<Student> entities;
+    private AgeSnapshot snapshot;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<Faculty> faculties = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            Faculty faculty = new Faculty();
+            faculty.setId(i);
+            faculties.add(faculty);
+        }
+        entities = new ArrayList<>(students);
+        long[] ids = new long[students];
+        int[] ages = new int[students];
+        long[] facultyIds = new long[students];
+        for (int i = 0; i < students; i++) {
+            Student student = new Student();
+            student.setId(i + 1);
+            student.setAge(11 + random.nextInt(8));
+            student.setFaculty(faculties.get(random.nextInt(faculties.size())));
+            entities.add(student);
+            ids[i] = student.getId();
+            ages[i] = student.getAge();
+            facultyIds[i] = student.getFaculty().getId();
+        }
+        snapshot = AgeSnapshot.of(ids, ages, facultyIds, students);
+    }
+
+    @Benchmark
+    public long countBetweenEntities() {
+        return entities.stream()
+                .filter(student -> student.getAge() != null && student.getAge() >= 13 && student.getAge() <= 15)
+                .count();
+    }
+
+    @Benchmark
+    public long countBetweenSnapshot() {
+        return snapshot.count(13, 15);
+    }
+
+    @Benchmark
+    public double averageAgeEntities() {
+        return entities.stream()
+                .parallel()
+                .filter(student -> student.getAge() != null)
+                .mapToInt(Student::getAge)
+                .average()
+                .orElse(0.0);
+    }
+
+    @Benchmark
+    public double averageAgeSnapshot() {
+        return snapshot.averageAge(0, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public long countByFacultyEntities() {
+        return entities.stream()
+                .filter(student -> student.getAge() != null && student.getAge() >= 13 && student.getAge() <= 15)
+                .filter(student -> student.getFaculty() != null && student.getFaculty().getId() == 2)
+                .count();
+    }
+
+    @Benchmark
+    public long countByFacultySnapshot() {
+        return snapshot.count(13, 15, 2);
+    }
+}
@@ -0,0 +1,148 @@
+package ru.hogwarts.school.benchmark;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import ru.hogwarts.school.utility.ConnectionGate;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// модель запроса к аватару: короткий запрос к базе под соединением из пула и долгая передача файла без него.
+// platform - пул из 200 потоков, как у Tomcat по умолчанию; virtual - поток на запрос, как с
+// spring.threads.virtual.enabled. Соединения берутся из настоящего HikariDataSource, при gated - через
+// настоящий ConnectionGate с настройками профиля virtual. Драйвер заглушечный: соединение ничего не делает,
+// запрос к базе изображается задержкой queryMillis под взятым соединением
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ThreadModeBenchmark {
+
+    private static final int TOMCAT_MAX_THREADS = 200;
+    private static final int POOL_SIZE = 10;
+    private static final int GATE_MAX_WAITING = 200;
+    private static final long GATE_ACQUIRE_TIMEOUT_MS = 2000;
+    private static final long HIKARI_CONNECTION_TIMEOUT_MS = 30000;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    private String mode;
+
+    @Param({"false", "true"})
+    private boolean gated;
+
+    @Param({"1000", "5000"})
+    private int concurrentRequests;
+
+    @Param({"1"})
+    private int queryMillis;
+
+    @Param({"0", "20"})
+    private int fileMillis;
+
+    private ExecutorService executor;
+    private HikariDataSource pool;
+    private DataSource dataSource;
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    // отказы ворот и таймауты Hikari на одну операцию burst, рядом с пропускной способностью в отчёте
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcome {
+        public int served;
+        public int rejected;
+    }
+
+    @Setup
+    public void setUp() {
+        executor = mode.equals("VIRTUAL")
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(TOMCAT_MAX_THREADS);
+        HikariConfig config = new HikariConfig();
+        config.setDataSource(new StubDataSource());
+        config.setMaximumPoolSize(POOL_SIZE);
+        config.setConnectionTimeout(HIKARI_CONNECTION_TIMEOUT_MS);
+        config.setAutoCommit(false);
+        pool = new HikariDataSource(config);
+        dataSource = gated
+                ? (DataSource) new ConnectionGate(POOL_SIZE, GATE_MAX_WAITING, GATE_ACQUIRE_TIMEOUT_MS)
+                        .postProcessAfterInitialization(pool, "dataSource")
+                : pool;
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        pool.close();
+    }
+
+    // одна операция - пачка одновременных запросов, время операции - задержка самого медленного из них
+    @Benchmark
+    public int burst(Outcome outcome) throws Exception {
+        rejected.set(0);
+        List<Future<Integer>> responses = new ArrayList<>(concurrentRequests);
+        for (int i = 0; i < concurrentRequests; i++) {
+            responses.add(executor.submit(this::handle));
+        }
+        int served = 0;
+        for (Future<Integer> response : responses) {
+            served += response.get();
+        }
+        outcome.served += served;
+        outcome.rejected += rejected.get();
+        return served;
+    }
+
+    private int handle() throws InterruptedException {
+        try (Connection connection = dataSource.getConnection()) {
+            Thread.sleep(queryMillis);
+        } catch (SQLException e) {
+            rejected.incrementAndGet();
+            return 0;
+        }
+        if (fileMillis > 0) {
+            Thread.sleep(fileMillis);
+        }
+        return 1;
+    }
+
+    // физические соединения для Hikari: отвечают на его проверки и настройки значениями по умолчанию
+    private static class StubDataSource extends AbstractDataSource {
+
+        @Override
+        public Connection getConnection() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, (proxy, method, args) -> switch (method.getName()) {
+                        case "equals" -> proxy == args[0];
+                        case "hashCode" -> System.identityHashCode(proxy);
+                        case "isValid", "getAutoCommit" -> true;
+                        case "getTransactionIsolation" -> Connection.TRANSACTION_READ_COMMITTED;
+                        default -> defaultValue(method.getReturnType());
+                    });
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) {
+            return getConnection();
+        }
+
+        private static Object defaultValue(Class<?> type) {
+            if (type == boolean.class) {
+                return false;
+            }
+            if (type == int.class) {
+                return 0;
+            }
+            if (type == long.class) {
+                return 0L;
+            }
+            return null;
+        }
+    }
+}
@@ -2,22 +2,34 @@ package ru.hogwarts.school.controller;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import ru.hogwarts.school.dto.AvatarVersion;
 import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.AvatarVariant;
+import ru.hogwarts.school.model.ThumbnailStatus;
+import ru.hogwarts.school.service.AvatarImportService;
 import ru.hogwarts.school.service.AvatarService;
+import ru.hogwarts.school.service.AvatarVariantService;
+import ru.hogwarts.school.service.DecodeBudget;
+import ru.hogwarts.school.service.DecodeBudgetExceededException;
 import ru.hogwarts.school.service.StudentService;
+import ru.hogwarts.school.service.ThumbnailCache;
+import ru.hogwarts.school.service.ThumbnailRenderer;
+import ru.hogwarts.school.service.UploadMetrics;
+import ru.hogwarts.school.utility.FileSender;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
@@ -28,10 +40,22 @@ import java.util.List;
 public class AvatarController {
     private final AvatarService avatarService;
     private final StudentService studentService;
-
-    public AvatarController(AvatarService avatarService, StudentService studentService) {
+    private final AvatarVariantService avatarVariantService;
+    private final AvatarImportService avatarImportService;
+    private final ThumbnailCache thumbnailCache;
+    private final DecodeBudget decodeBudget;
+    private final FileSender fileSender;
+
+    public AvatarController(AvatarService avatarService, StudentService studentService,
+                            AvatarVariantService avatarVariantService, AvatarImportService avatarImportService,
+                            ThumbnailCache thumbnailCache, DecodeBudget decodeBudget, FileSender fileSender) {
         this.avatarService = avatarService;
         this.studentService = studentService;
+        this.avatarVariantService = avatarVariantService;
+        this.avatarImportService = avatarImportService;
+        this.thumbnailCache = thumbnailCache;
+        this.decodeBudget = decodeBudget;
+        this.fileSender = fileSender;
     }
 
 
@@ -50,57 +74,117 @@ public class AvatarController {
     }
 
 
-    @Operation(summary = "Показать аватар по id студента из базы данных")
+    @Operation(summary = "Массовая загрузка аватаров из ZIP-архива (файлы вида <id студента>.<расширение>)")
+    @PostMapping(value = "/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> importAvatars(@RequestParam MultipartFile file) {
+        try {
+            return ResponseEntity.ok(avatarImportService.importZip(file));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Ошибка чтения архива");
+        }
+    }
+
+
+    @Operation(summary = "Показать аватар по id студента из базы данных (w - ширина 48, 100, 256 или 512, crop - квадратная обрезка)")
     @GetMapping("/student/{studentId}")
-    public ResponseEntity<?> getAvatarFromDb(@PathVariable Long studentId) {
+    public ResponseEntity<?> getAvatarFromDb(@PathVariable Long studentId,
+                                             @RequestParam(value = "w", required = false) Integer width,
+                                             @RequestParam(value = "crop", defaultValue = "false") boolean crop,
+                                             WebRequest request) {
+        // без w отдаём основную миниатюру - вариант шириной 100 без обрезки
+        int thumbnailWidth = width != null ? width : ThumbnailRenderer.DEFAULT_WIDTH;
+        boolean thumbnailCrop = width != null && crop;
+        ThumbnailCache.CachedThumbnail cached = thumbnailCache.get(studentId, thumbnailWidth, thumbnailCrop);
+        if (cached != null) {
+            if (request.checkNotModified(variantETag(cached.contentHash(), thumbnailWidth, thumbnailCrop))) {
+                return null;
+            }
+            return ResponseEntity.ok()
+                    .header("Content-Type", cached.mediaType())
+                    .body(cached.data());
+        }
+
+        // вариант однозначно задаётся хэшем исходника, поэтому 304 отдаём без чтения аватара и картинки.
+        // основную миниатюру сверяем, только когда она готова, иначе клиент закэширует ответ 202
+        AvatarVersion version = avatarService.findAvatarVersion(studentId);
+        if (version != null && version.contentHash() != null
+                && (width != null || version.thumbnailStatus() == ThumbnailStatus.READY)
+                && request.checkNotModified(variantETag(version.contentHash(), thumbnailWidth, thumbnailCrop))) {
+            return null;
+        }
+
         Avatar avatar = avatarService.findAvatar(studentId);
-        if (avatar == null || avatar.getData() == null) {
+        if (avatar == null || avatar.getId() == null) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body("Такого аватара или студента нет");
         }
-
-        String mediaType = avatar.getMediaType();
-        if (mediaType == null || mediaType.isEmpty()) {
-            mediaType = "application/octet-stream";
+        if (width == null) {
+            if (avatar.getThumbnailStatus() == ThumbnailStatus.PENDING) {
+                return ResponseEntity.status(HttpStatus.ACCEPTED)
+                        .header(HttpHeaders.RETRY_AFTER, "1")
+                        .body("Миниатюра аватара ещё создаётся");
+            }
+            if (avatar.getThumbnailStatus() == ThumbnailStatus.FAILED) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body("Миниатюра аватара недоступна");
+            }
         }
+        return getAvatarVariant(studentId, avatar, thumbnailWidth, thumbnailCrop);
+    }
+
 
-        return ResponseEntity.ok()
-                .header("Content-Type", mediaType)
-                .body(avatar.getData());
+    private ResponseEntity<?> getAvatarVariant(Long studentId, Avatar avatar, int width, boolean crop) {
+        try {
+            AvatarVariant variant = avatarVariantService.getVariant(avatar, width, crop);
+            String mediaType = variant.getMediaType();
+            if (mediaType == null || mediaType.isEmpty()) {
+                mediaType = "application/octet-stream";
+            }
+            thumbnailCache.put(studentId, width, crop, variant.getData(), mediaType, avatar.getContentHash());
+            return ResponseEntity.ok()
+                    .header("Content-Type", mediaType)
+                    .body(variant.getData());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (DecodeBudgetExceededException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body(e.getMessage());
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Не удалось подготовить аватар нужного размера");
+        }
     }
 
+    private static String variantETag(String contentHash, int width, boolean crop) {
+        return contentHash + "-" + width + (crop ? "c" : "");
+    }
 
     @Operation(summary = "Показать оригинал аватара по id студента")
     @GetMapping("/file/{studentId}")
-    public ResponseEntity<?> getAvatarFromFile(@PathVariable Long studentId, HttpServletResponse response) {
+    public ResponseEntity<?> getAvatarFromFile(@PathVariable Long studentId,
+                                               HttpServletRequest request,
+                                               HttpServletResponse response) {
         Avatar avatar = avatarService.findAvatar(studentId);
         if (avatar == null || avatar.getFilePath() == null) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body("Такого аватара или студента нет");
         }
+        Path path = Path.of(avatar.getFilePath());
+        if (!Files.isRegularFile(path)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body("Файл аватара не найден");
+        }
         try {
-            Path path = Path.of(avatar.getFilePath());
-
-            String mediaType = Files.probeContentType(path);
-            response.setContentType(mediaType != null ? mediaType : "application/octet-stream");
-
-            long fileSize = Files.size(path);
-            if (fileSize > Integer.MAX_VALUE) {
-                return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
-                        .body("Файл слишком большой");
-            }
-            response.setContentLength((int) fileSize);
-
-            try (InputStream is = Files.newInputStream(path);
-                 OutputStream os = response.getOutputStream()) {
-                is.transferTo(os);
-            }
-            return ResponseEntity.ok().build();
+            fileSender.send(request, response, path, avatar.getMediaType(), avatar.getContentHash());
+            // ответ уже записан в HttpServletResponse
+            return null;
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Внутренняя ошибка сервера");
         }
     }
+
     @Operation(summary = "Получить список аватаров с пагинацией")
     @GetMapping
     public ResponseEntity<List<Avatar>> getAvatars(@RequestParam("page") Integer pageNumber,
@@ -109,6 +193,33 @@ public class AvatarController {
         List<Avatar> avatarList = avatarService.getAvatars(pageNumber, pageSize);
         return new ResponseEntity<>(avatarList, HttpStatus.OK);
     }
-}
 
+    @Operation(summary = "Получить метаданные аватаров без содержимого (постранично по курсору)")
+    @GetMapping("/metadata")
+    public ResponseEntity<?> getAvatarInfos(@RequestParam(value = "after", required = false) Long after,
+                                            @RequestParam(value = "limit", defaultValue = "50") int limit) {
+        try {
+            return ResponseEntity.ok(avatarService.getAvatarInfos(after, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
 
+    @Operation(summary = "Статистика кэша миниатюр")
+    @GetMapping("/cache/stats")
+    public ThumbnailCache.Stats getThumbnailCacheStats() {
+        return thumbnailCache.getStats();
+    }
+
+    @Operation(summary = "Статистика загрузок: прочитано, записано на диск, не перечитано с диска, выделено памяти")
+    @GetMapping("/upload/stats")
+    public UploadMetrics.Stats getUploadStats() {
+        return avatarService.getUploadStats();
+    }
+
+    @Operation(summary = "Статистика декодирования изображений: бюджет памяти и пик кучи")
+    @GetMapping("/decode/stats")
+    public DecodeBudget.Stats getDecodeStats() {
+        return decodeBudget.getStats();
+    }
+}
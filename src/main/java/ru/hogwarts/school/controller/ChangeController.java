@@ -0,0 +1,53 @@
+package ru.hogwarts.school.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.hogwarts.school.service.ChangeCursorExpiredException;
+import ru.hogwarts.school.service.ChangeFeed;
+
+@Tag(name = "Изменения")
+@RestController
+@RequestMapping("/changes")
+public class ChangeController {
+    private final ChangeFeed changeFeed;
+
+    public ChangeController(ChangeFeed changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
+    @Operation(summary = "Изменения студентов, факультетов и аватаров после курсора")
+    @GetMapping
+    public ResponseEntity<?> getChanges(@RequestParam(value = "since", defaultValue = "0") long since,
+                                        @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        try {
+            return ResponseEntity.ok(changeFeed.getChanges(since, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (ChangeCursorExpiredException e) {
+            return ResponseEntity.status(HttpStatus.GONE).body(e.getMessage());
+        }
+    }
+
+    @Operation(summary = "Текущий курсор ленты изменений")
+    @GetMapping("/head")
+    public long getHead() {
+        return changeFeed.getHead();
+    }
+
+    // после обрыва браузер сам присылает Last-Event-ID, и поток продолжается с того же места
+    @Operation(summary = "Поток изменений (Server-Sent Events)")
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+                             @RequestParam(value = "since", required = false) Long since) {
+        return changeFeed.subscribe(lastEventId != null ? lastEventId : since);
+    }
+}
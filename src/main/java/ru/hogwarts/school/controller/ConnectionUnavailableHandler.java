@@ -0,0 +1,26 @@
+package ru.hogwarts.school.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+// нет свободного соединения с базой - это перегрузка, а не ошибка сервера: клиенту стоит повторить запрос
+@RestControllerAdvice
+public class ConnectionUnavailableHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionUnavailableHandler.class);
+
+    @ExceptionHandler({CannotGetJdbcConnectionException.class, CannotCreateTransactionException.class})
+    public ResponseEntity<String> handleConnectionUnavailable(RuntimeException e) {
+        logger.warn("No database connection available: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body("Сервер перегружен, попробуйте позже");
+    }
+}
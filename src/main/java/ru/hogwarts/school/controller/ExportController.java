@@ -0,0 +1,79 @@
+package ru.hogwarts.school.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.hogwarts.school.service.ExportService;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+@Tag(name = "Выгрузка")
+@RestController
+@RequestMapping("/export")
+public class ExportController {
+    private final ExportService exportService;
+
+    public ExportController(ExportService exportService) {
+        this.exportService = exportService;
+    }
+
+    @Operation(summary = "Выгрузить студентов в формате ndjson или csv (gzip - сжать ответ)")
+    @GetMapping("/students")
+    public ResponseEntity<StreamingResponseBody> exportStudents(
+            @RequestParam(value = "format", defaultValue = "ndjson") String format,
+            @RequestParam(value = "facultyId", required = false) Long facultyId,
+            @RequestParam(value = "minAge", required = false) Integer minAge,
+            @RequestParam(value = "maxAge", required = false) Integer maxAge,
+            @RequestParam(value = "gzip", defaultValue = "false") boolean gzip) {
+        ExportService.Format exportFormat = parseFormat(format);
+        return stream("students", exportFormat, gzip,
+                out -> exportService.exportStudents(out, exportFormat, facultyId, minAge, maxAge));
+    }
+
+    @Operation(summary = "Выгрузить факультеты в формате ndjson или csv (gzip - сжать ответ)")
+    @GetMapping("/faculties")
+    public ResponseEntity<StreamingResponseBody> exportFaculties(
+            @RequestParam(value = "format", defaultValue = "ndjson") String format,
+            @RequestParam(value = "gzip", defaultValue = "false") boolean gzip) {
+        ExportService.Format exportFormat = parseFormat(format);
+        return stream("faculties", exportFormat, gzip, out -> exportService.exportFaculties(out, exportFormat));
+    }
+
+    private static ExportService.Format parseFormat(String format) {
+        try {
+            return ExportService.Format.parse(format);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    private ResponseEntity<StreamingResponseBody> stream(String name, ExportService.Format format, boolean gzip,
+                                                         StreamingResponseBody body) {
+        String extension = format == ExportService.Format.CSV ? "csv" : "ndjson";
+        MediaType mediaType = format == ExportService.Format.CSV
+                ? new MediaType("text", "csv", StandardCharsets.UTF_8)
+                : MediaType.APPLICATION_NDJSON;
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(mediaType)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(name + "." + extension).build().toString());
+        if (!gzip) {
+            return response.body(body);
+        }
+        return response
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .body(out -> {
+                    GZIPOutputStream compressed = new GZIPOutputStream(out, 64 * 1024);
+                    body.writeTo(compressed);
+                    compressed.finish();
+                });
+    }
+}
@@ -3,13 +3,17 @@ package ru.hogwarts.school.controller;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import ru.hogwarts.school.dto.RosterPage;
 import ru.hogwarts.school.model.Faculty;
-import ru.hogwarts.school.model.Student;
 import ru.hogwarts.school.service.FacultyService;
+import ru.hogwarts.school.service.VersionConflictException;
+import ru.hogwarts.school.utility.ETags;
 
 import java.util.Collection;
 
@@ -25,7 +29,11 @@ public class FacultyController {
 
     @Operation(summary = "Показать факультеты")
     @GetMapping
-    public Collection<Faculty> getAllFaculties() {
+    public Collection<Faculty> getAllFaculties(WebRequest request) {
+        String eTag = facultyService.getFacultiesETag();
+        if (eTag != null && request.checkNotModified(eTag)) {
+            return null;
+        }
         return facultyService.getAllFaculties();
     }
 
@@ -37,7 +45,11 @@ public class FacultyController {
 
     @Operation(summary = "Показать факультет по id")
     @GetMapping("{id}")
-    public Faculty getFacultyInfo(@PathVariable Long id) {
+    public Faculty getFacultyInfo(@PathVariable Long id, WebRequest request) {
+        String eTag = facultyService.getFacultyETag(id);
+        if (eTag != null && request.checkNotModified(eTag)) {
+            return null;
+        }
         Faculty faculty = facultyService.findFaculty(id);
         if (faculty == null) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Faculty not found");
@@ -45,10 +57,19 @@ public class FacultyController {
         return faculty;
     }
 
-    @Operation(summary = "Редактировать факультет")
+    @Operation(summary = "Редактировать факультет (If-Match - ETag, полученный вместе с факультетом)")
     @PutMapping
-    public Faculty editFaculty(@RequestBody Faculty faculty) {
-        Faculty updatedFaculty = facultyService.editFaculty(faculty);
+    public Faculty editFaculty(@RequestBody Faculty faculty,
+                               @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Long expectedVersion = ETags.versionOf(ifMatch);
+        Faculty updatedFaculty;
+        try {
+            updatedFaculty = expectedVersion == null
+                    ? facultyService.editFaculty(faculty)
+                    : facultyService.editFaculty(faculty, expectedVersion);
+        } catch (VersionConflictException e) {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, e.getMessage());
+        }
         if (updatedFaculty == null) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Faculty not found");
         }
@@ -70,16 +91,22 @@ public class FacultyController {
         return ResponseEntity.ok(faculties);
     }
 
-    @Operation(summary = "Найти студентов по id факультета")
+    @Operation(summary = "Найти студентов по id факультета постранично (after - id последнего студента предыдущей страницы, withTotal - посчитать всех студентов факультета)")
     @GetMapping("{id}/students")
-    public ResponseEntity<Collection<Student>> getStudentsByFaculty(@PathVariable Long id) {
-        Faculty faculty = facultyService.findFaculty(id);
-        if (faculty == null) {
+    public ResponseEntity<?> getStudentsByFaculty(@PathVariable Long id,
+                                                  @RequestParam(value = "after", required = false) Long after,
+                                                  @RequestParam(value = "limit", defaultValue = "50") int limit,
+                                                  @RequestParam(value = "withTotal", defaultValue = "false") boolean withTotal) {
+        RosterPage page;
+        try {
+            page = facultyService.getStudentsOfFaculty(id, after, limit, withTotal);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        if (page == null) {
             return ResponseEntity.notFound().build();
         }
-
-        Collection<Student> students = faculty.getStudents();
-        return ResponseEntity.ok(students);
+        return ResponseEntity.ok(page);
     }
     @Operation(summary = "Получить самое длинное название факультета")
     @GetMapping("longest-name")
@@ -0,0 +1,33 @@
+package ru.hogwarts.school.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import ru.hogwarts.school.service.SearchIndex;
+
+@Tag(name = "Поиск")
+@RestController
+@RequestMapping("/search")
+public class SearchController {
+    private final SearchIndex searchIndex;
+
+    public SearchController(SearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+
+    @Operation(summary = "Поиск студентов и факультетов по имени, названию или цвету с учётом опечаток")
+    @GetMapping
+    public ResponseEntity<?> search(@RequestParam("q") String query,
+                                    @RequestParam(value = "type", required = false) SearchIndex.Type type,
+                                    @RequestParam(value = "limit", defaultValue = "20") int limit) {
+        try {
+            return ResponseEntity.ok(searchIndex.search(query, type, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+}
@@ -2,13 +2,24 @@ package ru.hogwarts.school.controller;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.hogwarts.school.dto.AgeSummary;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.service.StudentBulkService;
 import ru.hogwarts.school.service.StudentService;
+import ru.hogwarts.school.service.StudentStatistics;
+import ru.hogwarts.school.service.VersionConflictException;
+import ru.hogwarts.school.utility.ETags;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 
@@ -17,9 +28,11 @@ import java.util.List;
 @RequestMapping("students")
 public class StudentController {
     private StudentService studentService;
+    private final StudentBulkService studentBulkService;
 
-    public StudentController(StudentService studentService) {
+    public StudentController(StudentService studentService, StudentBulkService studentBulkService) {
         this.studentService = studentService;
+        this.studentBulkService = studentBulkService;
     }
 
     @Operation(summary = "Показать студентов")
@@ -28,15 +41,59 @@ public class StudentController {
         return ResponseEntity.ok(studentService.getAllStudents());
     }
 
+    @Operation(summary = "Показать студентов постранично (after - id последнего студента предыдущей страницы)")
+    @GetMapping("/page")
+    public ResponseEntity<?> getStudentsPage(@RequestParam(value = "after", required = false) Long after,
+                                             @RequestParam(value = "limit", defaultValue = "50") int limit) {
+        try {
+            return ResponseEntity.ok(studentService.getStudentsPage(after, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @Operation(summary = "Выгрузить всех студентов потоком")
+    @GetMapping("/stream")
+    public ResponseEntity<StreamingResponseBody> streamStudents() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(studentService::writeAllStudents);
+    }
+
     @Operation(summary = "Добавить студента")
     @PostMapping
     public Student createStudent(@RequestBody Student student) {
         return studentService.createStudent(student);
     }
 
+    @Operation(summary = "Добавить студентов пачкой (JSON-массив или NDJSON)")
+    @PostMapping(value = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<?> createStudents(HttpServletRequest request) {
+        try {
+            return ResponseEntity.ok(studentBulkService.createStudents(request.getInputStream()));
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().body("Не удалось прочитать список студентов");
+        }
+    }
+
+    @Operation(summary = "Редактировать студентов пачкой (JSON-массив или NDJSON), каждая строка заменяет студента целиком")
+    @PutMapping(value = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<?> updateStudents(HttpServletRequest request) {
+        try {
+            return ResponseEntity.ok(studentBulkService.updateStudents(request.getInputStream()));
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().body("Не удалось прочитать список студентов");
+        }
+    }
+
     @Operation(summary = "Найти студента по id")
     @GetMapping("{id}")
-    public ResponseEntity<Student> getStudentInfo(@PathVariable Long id) {
+    public ResponseEntity<Student> getStudentInfo(@PathVariable Long id, WebRequest request) {
+        // версию сверяем до загрузки: на неизменившегося студента уходит 304 без чтения и сериализации
+        String eTag = studentService.getStudentETag(id);
+        if (eTag != null && request.checkNotModified(eTag)) {
+            return null;
+        }
         Student student = studentService.findStudent(id);
         if (student == null) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
@@ -44,14 +101,24 @@ public class StudentController {
         return ResponseEntity.ok(student);
     }
 
-    @Operation(summary = "Редактировать студента")
+    @Operation(summary = "Редактировать студента (If-Match - ETag, полученный вместе со студентом)")
     @PutMapping
-    public ResponseEntity<Student> editStudent(@RequestBody Student student) {
-        Student foundStudent = studentService.editStudent(student);
+    public ResponseEntity<?> editStudent(@RequestBody Student student,
+                                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Long expectedVersion = ETags.versionOf(ifMatch);
+        Student foundStudent;
+        try {
+            foundStudent = expectedVersion == null
+                    ? studentService.editStudent(student)
+                    : studentService.editStudent(student, expectedVersion);
+        } catch (VersionConflictException e) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(e.getMessage());
+        }
         if (foundStudent == null) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok(foundStudent);
+        String eTag = studentService.getStudentETag(foundStudent);
+        return eTag != null ? ResponseEntity.ok().eTag(eTag).body(foundStudent) : ResponseEntity.ok(foundStudent);
     }
 
     @Operation(summary = "Удалить студента")
@@ -68,14 +135,18 @@ public class StudentController {
         return ResponseEntity.ok(students);
     }
 
+    @Operation(summary = "Количество и средний возраст студентов в диапазоне возрастов, по всему списку или по факультету")
+    @GetMapping("age/summary")
+    public ResponseEntity<AgeSummary> getAgeSummary(@RequestParam(value = "min", required = false) Integer min,
+                                                    @RequestParam(value = "max", required = false) Integer max,
+                                                    @RequestParam(value = "facultyId", required = false) Long facultyId) {
+        return ResponseEntity.ok(studentService.getAgeSummary(min, max, facultyId));
+    }
+
     @Operation(summary = "Посмотреть факультет студента")
     @GetMapping("{id}/faculty")
     public ResponseEntity<Faculty> getFacultyByStudent(@PathVariable Long id) {
-        Student student = studentService.findStudent(id);
-        if (student == null) {
-            return ResponseEntity.notFound().build();
-        }
-        Faculty faculty = student.getFaculty();
+        Faculty faculty = studentService.findFacultyOfStudent(id);
         if (faculty == null) {
             return ResponseEntity.notFound().build();
         }
@@ -96,17 +167,28 @@ public class StudentController {
         return ResponseEntity.ok(avgAge);
     }
 
+    @Operation(summary = "Статистика студентов: количество, средний возраст, распределение по возрасту и факультетам")
+    @GetMapping("/stats")
+    public ResponseEntity<StudentStatistics.Snapshot> getStatistics() {
+        return ResponseEntity.ok(studentService.getStatistics());
+    }
+
     @Operation(summary = "Пять последних студентов")
     @GetMapping("/last-five")
     public ResponseEntity<List<Student>> getLastFiveStudents() {
         return ResponseEntity.ok(studentService.getLastFiveStudents());
     }
 
-    @Operation(summary = "Получить имена всех студентов, начинающихся с 'А', отсортированные в алфавитном порядке, в верхнем регистре")
-    @GetMapping("/names/starts-with-a")
-    public ResponseEntity<List<String>> getNamesStartingWithA() {
-        List<String> names = studentService.getNamesStartingWithA();
-        return ResponseEntity.ok(names);
+    @Operation(summary = "Имена студентов, начинающиеся с prefix, в порядке возрастания (after - последнее имя предыдущей страницы)")
+    @GetMapping("/names")
+    public ResponseEntity<?> getNamesByPrefix(@RequestParam("prefix") String prefix,
+                                              @RequestParam(value = "after", required = false) String after,
+                                              @RequestParam(value = "limit", defaultValue = "50") int limit) {
+        try {
+            return ResponseEntity.ok(studentService.getNamesByPrefix(prefix, after, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
     }
 
 }
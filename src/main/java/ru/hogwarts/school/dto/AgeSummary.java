@@ -0,0 +1,4 @@
+package ru.hogwarts.school.dto;
+
+public record AgeSummary(int minAge, int maxAge, Long facultyId, long count, double averageAge) {
+}
@@ -0,0 +1,8 @@
+package ru.hogwarts.school.dto;
+
+public record AvatarInfo(Long id, Long studentId, long fileSize, String mediaType, String thumbnailUrl) {
+
+    public AvatarInfo(Long id, Long studentId, long fileSize, String mediaType) {
+        this(id, studentId, fileSize, mediaType, "/avatars/student/" + studentId);
+    }
+}
@@ -0,0 +1,6 @@
+package ru.hogwarts.school.dto;
+
+import ru.hogwarts.school.model.ThumbnailStatus;
+
+public record AvatarVersion(String contentHash, ThumbnailStatus thumbnailStatus) {
+}
@@ -0,0 +1,7 @@
+package ru.hogwarts.school.dto;
+
+import java.time.Instant;
+
+public record ChangeEvent(long seq, String entityType, long entityId, String operation, Long version,
+                          Instant createdAt) {
+}
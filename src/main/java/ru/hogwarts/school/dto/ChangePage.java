@@ -0,0 +1,7 @@
+package ru.hogwarts.school.dto;
+
+import java.util.List;
+
+// nextCursor передаётся в следующий запрос как since, даже если изменений не было
+public record ChangePage(List<ChangeEvent> items, long nextCursor) {
+}
@@ -0,0 +1,9 @@
+package ru.hogwarts.school.dto;
+
+import ru.hogwarts.school.model.Student;
+
+import java.util.List;
+
+// total считается только по запросу, чтобы глубокое листание не платило за count
+public record RosterPage(List<Student> items, Long nextCursor, Long total) {
+}
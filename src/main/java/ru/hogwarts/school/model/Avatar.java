@@ -1,6 +1,6 @@
 package ru.hogwarts.school.model;
 
-import com.fasterxml.jackson.annotation.JsonBackReference;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 
 
@@ -17,11 +17,15 @@ public class Avatar {
 
     private String mediaType;
 
-    @Lob
-    private byte[] data;
+    private String contentHash;
 
-    @JsonBackReference
-    @OneToOne
+    @Enumerated(EnumType.STRING)
+    private ThumbnailStatus thumbnailStatus;
+
+    private int thumbnailAttempts;
+
+    @JsonIgnore
+    @OneToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "student_id")
     private Student student;
 
@@ -58,12 +62,28 @@ public class Avatar {
         this.mediaType = mediaType;
     }
 
-    public byte[] getData() {
-        return data;
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public ThumbnailStatus getThumbnailStatus() {
+        return thumbnailStatus;
+    }
+
+    public void setThumbnailStatus(ThumbnailStatus thumbnailStatus) {
+        this.thumbnailStatus = thumbnailStatus;
+    }
+
+    public int getThumbnailAttempts() {
+        return thumbnailAttempts;
     }
 
-    public void setData(byte[] data) {
-        this.data = data;
+    public void setThumbnailAttempts(int thumbnailAttempts) {
+        this.thumbnailAttempts = thumbnailAttempts;
     }
 
     public Student getStudent() {
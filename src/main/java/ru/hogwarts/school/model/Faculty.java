@@ -1,17 +1,19 @@
 package ru.hogwarts.school.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.Version;
 import org.hibernate.sql.ast.tree.expression.Collation;
 
 import java.util.Collection;
 import java.util.Objects;
 
 @Entity
-
+@JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
 public class Faculty {
     @Id
     @GeneratedValue
@@ -19,6 +21,9 @@ public class Faculty {
     private String name;
     private String color;
 
+    @Version
+    private long version;
+
     @OneToMany(mappedBy = "faculty")
     @JsonIgnore
     private Collection<Student> students;
@@ -56,6 +61,14 @@ public class Faculty {
         this.color = color;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -3,11 +3,39 @@ package ru.hogwarts.school.repositories;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import ru.hogwarts.school.dto.AvatarInfo;
+import ru.hogwarts.school.dto.AvatarVersion;
 import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.ThumbnailStatus;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface AvatarRepository extends JpaRepository <Avatar, Long>{
     Page<Avatar> findAll(Pageable pageable);
     Optional<Avatar> findByStudentId(Long studentId);
+
+    @Query("SELECT new ru.hogwarts.school.dto.AvatarVersion(a.contentHash, a.thumbnailStatus) " +
+            "FROM Avatar a WHERE a.student.id = :studentId")
+    Optional<AvatarVersion> findVersionByStudentId(@Param("studentId") Long studentId);
+
+    @Query("SELECT new ru.hogwarts.school.dto.AvatarInfo(a.id, a.student.id, a.fileSize, a.mediaType) " +
+            "FROM Avatar a WHERE a.id > :after ORDER BY a.id")
+    List<AvatarInfo> findInfoAfter(@Param("after") long after, Pageable pageable);
+
+    @Query("SELECT a.id FROM Avatar a WHERE a.thumbnailStatus = :status")
+    List<Long> findIdsByThumbnailStatus(@Param("status") ThumbnailStatus status);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE Avatar a SET a.thumbnailStatus = :status, a.thumbnailAttempts = :attempts " +
+            "WHERE a.id = :id AND a.contentHash = :contentHash")
+    int updateThumbnailStatus(@Param("id") Long id,
+                              @Param("contentHash") String contentHash,
+                              @Param("status") ThumbnailStatus status,
+                              @Param("attempts") int attempts);
 }
@@ -0,0 +1,31 @@
+package ru.hogwarts.school.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import ru.hogwarts.school.model.AvatarVariant;
+
+import java.util.Optional;
+
+public interface AvatarVariantRepository extends JpaRepository<AvatarVariant, Long> {
+    Optional<AvatarVariant> findByContentHashAndWidthAndCrop(String contentHash, int width, boolean crop);
+
+    boolean existsByContentHashAndWidthAndCrop(String contentHash, int width, boolean crop);
+
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO avatar_variant (content_hash, width, crop, media_type, data) " +
+            "VALUES (:contentHash, :width, :crop, :mediaType, :data) " +
+            "ON CONFLICT (content_hash, width, crop) DO NOTHING", nativeQuery = true)
+    int insertIfAbsent(@Param("contentHash") String contentHash,
+                       @Param("width") int width,
+                       @Param("crop") boolean crop,
+                       @Param("mediaType") String mediaType,
+                       @Param("data") byte[] data);
+
+    @Modifying
+    @Query("DELETE FROM AvatarVariant v WHERE v.contentHash = :contentHash")
+    int deleteByContentHash(@Param("contentHash") String contentHash);
+}
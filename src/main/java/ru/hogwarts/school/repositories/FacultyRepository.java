@@ -1,15 +1,28 @@
 package ru.hogwarts.school.repositories;
 
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import ru.hogwarts.school.model.Faculty;
 
-import java.util.List;
+import java.util.Optional;
 
 public interface FacultyRepository extends JpaRepository<Faculty, Long> {
-    List<Faculty> findByColor(String color);
 
-    @Query("SELECT f FROM Faculty f WHERE LOWER(f.name) LIKE LOWER(CONCAT('%', :query, '%')) OR LOWER(f.color) LIKE LOWER(CONCAT('%', :query, '%'))")
-    List<Faculty> findByNameOrColorIgnoreCase(@Param("query") String query);
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT f FROM Faculty f WHERE f.id = :id")
+    Optional<Faculty> findForUpdate(@Param("id") long id);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE Faculty f SET f.name = :name, f.color = :color, f.version = f.version + 1 " +
+            "WHERE f.id = :id AND f.version = :version")
+    int updateIfVersion(@Param("id") long id,
+                        @Param("version") long version,
+                        @Param("name") String name,
+                        @Param("color") String color);
 }
@@ -1,22 +1,88 @@
 package ru.hogwarts.school.repositories;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface StudentRepository extends JpaRepository<Student, Long> {
+    @Override
+    @EntityGraph(attributePaths = "faculty")
+    List<Student> findAll();
+
+    @Override
+    @EntityGraph(attributePaths = "faculty")
+    Optional<Student> findById(Long id);
+
+    @EntityGraph(attributePaths = "faculty")
     List<Student> findByAge(int age);
 
+    @EntityGraph(attributePaths = "faculty")
     List<Student> findByAgeBetween(int minAge, int maxAge);
 
-    @Query("SELECT COUNT(s) FROM Student s")
-    long countAllStudents();
+    @Query("SELECT s FROM Student s JOIN FETCH s.faculty f WHERE f.id = :facultyId AND s.id > :after ORDER BY s.id")
+    List<Student> findRosterPage(@Param("facultyId") long facultyId, @Param("after") long after, Pageable pageable);
+
+    long countByFacultyId(long facultyId);
+
+    @Query("SELECT f FROM Student s JOIN s.faculty f WHERE s.id = :id")
+    Optional<Faculty> findFacultyByStudentId(@Param("id") long id);
+
+    @Query("SELECT s.age, f.id, COUNT(s) FROM Student s LEFT JOIN s.faculty f GROUP BY s.age, f.id")
+    List<Object[]> countByAgeAndFaculty();
+
+    @EntityGraph(attributePaths = "faculty")
+    List<Student> findTop5ByOrderByIdDesc();
+
+    // диапазон вместо LIKE, чтобы индекс student_name_c_index использовался и в подготовленном плане
+    @Query(value = "SELECT DISTINCT name COLLATE \"C\" AS name FROM student " +
+            "WHERE name COLLATE \"C\" >= :prefix AND name COLLATE \"C\" < :upper AND name COLLATE \"C\" > :after " +
+            "ORDER BY 1 LIMIT :limit", nativeQuery = true)
+    List<String> findNamesInRange(@Param("prefix") String prefix,
+                                  @Param("upper") String upper,
+                                  @Param("after") String after,
+                                  @Param("limit") int limit);
+
+    // для начала имени без верхней границы диапазона, см. StudentService.prefixUpperBound
+    @Query(value = "SELECT DISTINCT name COLLATE \"C\" AS name FROM student " +
+            "WHERE name COLLATE \"C\" >= :prefix AND name COLLATE \"C\" > :after " +
+            "ORDER BY 1 LIMIT :limit", nativeQuery = true)
+    List<String> findNamesFrom(@Param("prefix") String prefix,
+                               @Param("after") String after,
+                               @Param("limit") int limit);
+
+    @Query("SELECT s FROM Student s LEFT JOIN FETCH s.faculty WHERE s.id > :after ORDER BY s.id")
+    List<Student> findPageAfter(@Param("after") long after, Pageable pageable);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT s FROM Student s LEFT JOIN FETCH s.faculty ORDER BY s.id")
+    Stream<Student> streamAll();
 
-    @Query("SELECT AVG(s.age) FROM Student s")
-    Double getAverageAge();
+    @Query("SELECT s.version, f.id FROM Student s LEFT JOIN s.faculty f WHERE s.id = :id")
+    List<Object[]> findVersionById(@Param("id") long id);
 
-    @Query(value = "SELECT * FROM student ORDER BY id DESC LIMIT 5", nativeQuery = true)
-    List<Student> findLastFiveStudents();
+    // одна команда вместо чтения и записи; старые возраст и факультет нужны статистике.
+    // пустой результат - студента нет или его версия уже другая
+    @Query(value = "WITH old AS (SELECT id, age, faculty_id FROM student WHERE id = :id AND version = :version FOR UPDATE) " +
+            "UPDATE student s SET name = :name, age = CAST(:age AS integer), faculty_id = CAST(:facultyId AS bigint), " +
+            "version = s.version + 1 FROM old WHERE s.id = old.id RETURNING old.age, old.faculty_id",
+            nativeQuery = true)
+    List<Object[]> updateIfVersion(@Param("id") long id,
+                                   @Param("version") long version,
+                                   @Param("name") String name,
+                                   @Param("age") Integer age,
+                                   @Param("facultyId") Long facultyId);
 }
@@ -0,0 +1,194 @@
+package ru.hogwarts.school.service;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+// неизменяемый снимок студентов с известным возрастом: параллельные массивы, отсортированные по (age, id)
+public final class AgeSnapshot {
+
+    public static final long NO_FACULTY = 0L;
+
+    private static final AgeSnapshot EMPTY = new AgeSnapshot(new long[0], new int[0], new long[0]);
+
+    private final long[] ids;
+    private final int[] ages;
+    private final long[] facultyIds;
+    // ageSums[i] - сумма возрастов первых i студентов
+    private final long[] ageSums;
+
+    private AgeSnapshot(long[] ids, int[] ages, long[] facultyIds) {
+        this.ids = ids;
+        this.ages = ages;
+        this.facultyIds = facultyIds;
+        this.ageSums = new long[ages.length + 1];
+        for (int i = 0; i < ages.length; i++) {
+            ageSums[i + 1] = ageSums[i] + ages[i];
+        }
+    }
+
+    public static AgeSnapshot empty() {
+        return EMPTY;
+    }
+
+    public static AgeSnapshot of(long[] ids, int[] ages, long[] facultyIds, int size) {
+        int[] order = sortedOrder(ids, ages, size);
+        long[] sortedIds = new long[size];
+        int[] sortedAges = new int[size];
+        long[] sortedFaculties = new long[size];
+        for (int i = 0; i < size; i++) {
+            sortedIds[i] = ids[order[i]];
+            sortedAges[i] = ages[order[i]];
+            sortedFaculties[i] = facultyIds[order[i]];
+        }
+        return new AgeSnapshot(sortedIds, sortedAges, sortedFaculties);
+    }
+
+    public record Row(long id, int age, long facultyId) {
+    }
+
+    // removed - id, чьи строки выбрасываются; added - новые значения, в том числе для изменённых студентов.
+    // сортируется только пачка изменений, со снимком она сливается за один линейный проход
+    public AgeSnapshot merge(Set<Long> removed, Map<Long, Row> added) {
+        int deltaSize = added.size();
+        long[] deltaIds = new long[deltaSize];
+        int[] deltaAges = new int[deltaSize];
+        long[] deltaFaculties = new long[deltaSize];
+        int k = 0;
+        for (Row row : added.values()) {
+            deltaIds[k] = row.id();
+            deltaAges[k] = row.age();
+            deltaFaculties[k] = row.facultyId();
+            k++;
+        }
+        int[] order = sortedOrder(deltaIds, deltaAges, deltaSize);
+
+        // прежние строки удалённых и изменённых студентов; отсортированы для поиска без упаковки в Long
+        long[] dropped = new long[removed.size() + deltaSize];
+        int droppedSize = 0;
+        for (long id : removed) {
+            dropped[droppedSize++] = id;
+        }
+        System.arraycopy(deltaIds, 0, dropped, droppedSize, deltaSize);
+        Arrays.sort(dropped);
+
+        int capacity = ids.length + deltaSize;
+        long[] newIds = new long[capacity];
+        int[] newAges = new int[capacity];
+        long[] newFaculties = new long[capacity];
+        int size = 0;
+        int j = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (dropped.length > 0 && Arrays.binarySearch(dropped, ids[i]) >= 0) {
+                continue;
+            }
+            while (j < deltaSize && compare(deltaAges[order[j]], deltaIds[order[j]], ages[i], ids[i]) < 0) {
+                int d = order[j++];
+                newIds[size] = deltaIds[d];
+                newAges[size] = deltaAges[d];
+                newFaculties[size] = deltaFaculties[d];
+                size++;
+            }
+            newIds[size] = ids[i];
+            newAges[size] = ages[i];
+            newFaculties[size] = facultyIds[i];
+            size++;
+        }
+        while (j < deltaSize) {
+            int d = order[j++];
+            newIds[size] = deltaIds[d];
+            newAges[size] = deltaAges[d];
+            newFaculties[size] = deltaFaculties[d];
+            size++;
+        }
+        if (size < capacity) {
+            newIds = Arrays.copyOf(newIds, size);
+            newAges = Arrays.copyOf(newAges, size);
+            newFaculties = Arrays.copyOf(newFaculties, size);
+        }
+        return new AgeSnapshot(newIds, newAges, newFaculties);
+    }
+
+    // порядок индексов по (age, id) без упаковки: ключ - возраст в старших 32 битах и ранг id в младших
+    private static int[] sortedOrder(long[] ids, int[] ages, int size) {
+        long[] sortedIds = Arrays.copyOf(ids, size);
+        Arrays.sort(sortedIds);
+        int[] indexByRank = new int[size];
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            int rank = Arrays.binarySearch(sortedIds, ids[i]);
+            indexByRank[rank] = i;
+            keys[i] = ((long) ages[i] << 32) | rank;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = indexByRank[(int) keys[i]];
+        }
+        return order;
+    }
+
+    private static int compare(int age, long id, int otherAge, long otherId) {
+        return age != otherAge ? Integer.compare(age, otherAge) : Long.compare(id, otherId);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int count(int minAge, int maxAge) {
+        return Math.max(0, upperBound(maxAge) - lowerBound(minAge));
+    }
+
+    public int count(int minAge, int maxAge, long facultyId) {
+        int count = 0;
+        for (int i = lowerBound(minAge), end = upperBound(maxAge); i < end; i++) {
+            if (facultyIds[i] == facultyId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public double averageAge() {
+        return ages.length > 0 ? (double) ageSums[ages.length] / ages.length : 0.0;
+    }
+
+    public double averageAge(int minAge, int maxAge) {
+        int from = lowerBound(minAge);
+        int to = upperBound(maxAge);
+        return to > from ? (double) (ageSums[to] - ageSums[from]) / (to - from) : 0.0;
+    }
+
+    public double averageAge(int minAge, int maxAge, long facultyId) {
+        long sum = 0;
+        int count = 0;
+        for (int i = lowerBound(minAge), end = upperBound(maxAge); i < end; i++) {
+            if (facultyIds[i] == facultyId) {
+                sum += ages[i];
+                count++;
+            }
+        }
+        return count > 0 ? (double) sum / count : 0.0;
+    }
+
+    // первый индекс с возрастом >= age
+    private int lowerBound(int age) {
+        int low = 0;
+        int high = ages.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ages[mid] < age) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // первый индекс с возрастом > age
+    private int upperBound(int age) {
+        return age == Integer.MAX_VALUE ? ages.length : lowerBound(age + 1);
+    }
+}
@@ -0,0 +1,338 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+import ru.hogwarts.school.model.AvatarBlob;
+import ru.hogwarts.school.repositories.AvatarBlobRepository;
+import ru.hogwarts.school.repositories.AvatarVariantRepository;
+import ru.hogwarts.school.utility.TransactionCallbacks;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+@Service
+@Transactional
+public class AvatarBlobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(AvatarBlobStore.class);
+
+    private static final String BLOBS_DIR = "blobs";
+
+    // первая половина ключа advisory lock: отделяет блокировки блобов от остальных
+    private static final int LOCK_SPACE = 0x426c6f62;
+
+    private static final int CLEANUP_BATCH_SIZE = 100;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    @Value("${students.avatar.dir.path}")
+    private String avatarsDir;
+
+    private final AvatarBlobRepository avatarBlobRepository;
+    private final AvatarVariantRepository avatarVariantRepository;
+    private final UploadMetrics uploadMetrics;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Queue<ReleasedBlob> released = new ConcurrentLinkedQueue<>();
+
+    public AvatarBlobStore(AvatarBlobRepository avatarBlobRepository,
+                           AvatarVariantRepository avatarVariantRepository,
+                           UploadMetrics uploadMetrics,
+                           JdbcTemplate jdbcTemplate,
+                           TransactionTemplate transactionTemplate) {
+        this.avatarBlobRepository = avatarBlobRepository;
+        this.avatarVariantRepository = avatarVariantRepository;
+        this.uploadMetrics = uploadMetrics;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    // staged - временная копия содержимого, которую acquire переносит на место, если файла блоба нет;
+    // null, когда содержимое не копировали, потому что файл уже лежал на месте
+    public record StoredBlob(String hash, Path path, long size, String mediaType, boolean known, Path staged) {
+
+        // блоб не понадобился: загрузка ничего не меняет или отменена
+        public void discard() {
+            if (staged != null) {
+                deleteQuietly(staged);
+            }
+        }
+    }
+
+    private record ReleasedBlob(String hash, Path path) {
+    }
+
+    // третий получатель байтов загрузки рядом с дайджестом и файлом, например декодер миниатюры
+    @FunctionalInterface
+    public interface ContentReader {
+        void read(InputStream content) throws IOException;
+    }
+
+    // один проход по потоку загрузки: байты идут в дайджест, во временный файл и в reader, в куче не копятся.
+    // reader может остановиться раньше конца потока, остаток дочитывается в файл.
+    // Место в хранилище файл занимает только в acquire, под блокировкой хэша
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public StoredBlob store(MultipartFile file, String extension, ContentReader reader) throws IOException {
+        logger.debug("Was invoked method for store");
+        Path blobsDir = Path.of(avatarsDir, BLOBS_DIR);
+        Files.createDirectories(blobsDir);
+        Path tempFile = Files.createTempFile(blobsDir, "upload-", ".tmp");
+        try {
+            MessageDigest digest = newDigest();
+            long size;
+            // декодер читает поток кусками около килобайта, запись на диск собирается в крупные блоки
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempFile), WRITE_BUFFER_SIZE);
+                 CopyingInputStream is = new CopyingInputStream(new DigestInputStream(file.getInputStream(), digest), out)) {
+                reader.read(is);
+                is.transferTo(OutputStream.nullOutputStream());
+                size = is.copied();
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            Path blobPath = blobPath(hash, extension);
+            return new StoredBlob(hash, blobPath, size, file.getContentType(), Files.exists(blobPath), tempFile);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(tempFile);
+            throw e;
+        }
+    }
+
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public StoredBlob store(byte[] content, String extension, String mediaType) throws IOException {
+        logger.debug("Was invoked method for store");
+        MessageDigest digest = newDigest();
+        digest.update(content);
+        String hash = HexFormat.of().formatHex(digest.digest());
+        Path blobPath = blobPath(hash, extension);
+        if (Files.exists(blobPath)) {
+            return new StoredBlob(hash, blobPath, content.length, mediaType, true, null);
+        }
+        Path blobsDir = Path.of(avatarsDir, BLOBS_DIR);
+        Files.createDirectories(blobsDir);
+        Path tempFile = Files.createTempFile(blobsDir, "upload-", ".tmp");
+        try {
+            Files.write(tempFile, content);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(tempFile);
+            throw e;
+        }
+        return new StoredBlob(hash, blobPath, content.length, mediaType, false, tempFile);
+    }
+
+    public void acquire(StoredBlob blob) throws IOException {
+        acquireAll(List.of(blob));
+    }
+
+    // строка блоба создаётся или получает +1 ссылку под блокировкой хэша, и под ней же проверяется файл:
+    // release и удаление файла берут ту же блокировку, поэтому блоб не может исчезнуть между проверкой и ссылкой
+    public void acquireAll(List<StoredBlob> blobs) throws IOException {
+        logger.debug("Acquiring {} avatar blobs", blobs.size());
+        try {
+            Map<String, StoredBlob> byHash = new TreeMap<>();
+            for (StoredBlob blob : blobs) {
+                byHash.putIfAbsent(blob.hash(), blob);
+            }
+            lock(byHash.keySet());
+            List<Object[]> rows = new ArrayList<>(blobs.size());
+            for (StoredBlob blob : blobs) {
+                rows.add(new Object[]{blob.hash(), blob.path().toString(), blob.size(), blob.mediaType()});
+            }
+            jdbcTemplate.batchUpdate("INSERT INTO avatar_blob (hash, file_path, file_size, media_type, ref_count) " +
+                    "VALUES (?, ?, ?, ?, 1) ON CONFLICT (hash) DO UPDATE SET ref_count = avatar_blob.ref_count + 1", rows);
+            for (StoredBlob blob : byHash.values()) {
+                place(blob);
+            }
+        } finally {
+            blobs.forEach(StoredBlob::discard);
+        }
+    }
+
+    private void place(StoredBlob blob) throws IOException {
+        if (Files.exists(blob.path())) {
+            uploadMetrics.recordDuplicateWriteSkipped();
+            logger.debug("Avatar blob {} already stored, skipping write", blob.hash());
+            return;
+        }
+        Path source = blob.staged();
+        if (source == null) {
+            throw new IOException("Файл аватара " + blob.hash() + " удалён во время загрузки, повторите попытку");
+        }
+        Files.createDirectories(blob.path().getParent());
+        moveIntoPlace(source, blob.path());
+        uploadMetrics.recordDiskWrite(blob.size());
+        logger.debug("Stored new avatar blob {} ({} bytes)", blob.hash(), blob.size());
+    }
+
+    public boolean release(String hash) {
+        logger.debug("Releasing avatar blob {}", hash);
+        lock(List.of(hash));
+        AvatarBlob blob = avatarBlobRepository.findById(hash).orElse(null);
+        if (blob == null) {
+            return false;
+        }
+        avatarBlobRepository.decrementRefCount(hash);
+        if (avatarBlobRepository.deleteIfUnreferenced(hash) > 0) {
+            avatarVariantRepository.deleteByContentHash(hash);
+            ReleasedBlob releasedBlob = new ReleasedBlob(hash, Path.of(blob.getFilePath()));
+            TransactionCallbacks.afterCommit(() -> released.add(releasedBlob));
+        }
+        return true;
+    }
+
+    // файлы освобождённых блобов удаляются отдельной транзакцией под той же блокировкой хэша:
+    // если за это время блоб снова загрузили, строка уже есть и файл остаётся
+    @Scheduled(fixedDelayString = "${avatars.blobs.cleanup-interval-ms:1000}")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void deleteReleased() {
+        while (!released.isEmpty()) {
+            Map<String, Path> batch = new TreeMap<>();
+            ReleasedBlob next;
+            while (batch.size() < CLEANUP_BATCH_SIZE && (next = released.poll()) != null) {
+                batch.put(next.hash(), next.path());
+            }
+            transactionTemplate.executeWithoutResult(status -> {
+                lock(batch.keySet());
+                Set<String> referenced = new HashSet<>();
+                avatarBlobRepository.findAllById(batch.keySet()).forEach(blob -> referenced.add(blob.getHash()));
+                batch.forEach((hash, path) -> {
+                    if (!referenced.contains(hash)) {
+                        deleteQuietly(path);
+                        logger.info("Deleted unreferenced avatar blob {}", hash);
+                    }
+                });
+            });
+        }
+    }
+
+    public void deleteLegacyFile(Path path, String thumbnailKey) {
+        avatarVariantRepository.deleteByContentHash(thumbnailKey);
+        TransactionCallbacks.afterCommit(() -> deleteQuietly(path));
+    }
+
+    // блокировки берутся в порядке хэшей, чтобы пакеты с общими блобами не взаимоблокировались
+    private void lock(Collection<String> hashes) {
+        String[] sorted = hashes.stream().sorted().distinct().toArray(String[]::new);
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(
+                    "SELECT pg_advisory_xact_lock(?, hashtext(h)) FROM unnest(?) AS h");
+            ps.setInt(1, LOCK_SPACE);
+            ps.setArray(2, connection.createArrayOf("text", sorted));
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+        });
+    }
+
+    private Path blobPath(String hash, String extension) {
+        return Path.of(avatarsDir, BLOBS_DIR).resolve(hash.substring(0, 2)).resolve(hash + "." + extension);
+    }
+
+    private void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, REPLACE_EXISTING);
+        }
+    }
+
+    // всё прочитанное из потока сразу дописывается в out
+    private static final class CopyingInputStream extends FilterInputStream {
+        private final OutputStream out;
+        private long copied;
+
+        CopyingInputStream(InputStream in, OutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                out.write(b);
+                copied++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                out.write(b, off, n);
+                copied += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read < 0) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void mark(int readlimit) {
+        }
+
+        @Override
+        public void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+
+        long copied() {
+            return copied;
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Failed to delete avatar file {}", path, e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
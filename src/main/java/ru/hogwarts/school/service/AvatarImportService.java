@@ -0,0 +1,358 @@
+package ru.hogwarts.school.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+import ru.hogwarts.school.model.ThumbnailStatus;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+@Service
+public class AvatarImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AvatarImportService.class);
+
+    private final AvatarBlobStore avatarBlobStore;
+    private final ThumbnailRenderer thumbnailRenderer;
+    private final EntityCache entityCache;
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ChangeFeed changeFeed;
+    private final ThreadPoolExecutor executor;
+    private final int parallelism;
+    private final int batchSize;
+
+    public AvatarImportService(AvatarBlobStore avatarBlobStore,
+                               ThumbnailRenderer thumbnailRenderer,
+                               EntityCache entityCache,
+                               JdbcTemplate jdbcTemplate,
+                               NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                               TransactionTemplate transactionTemplate,
+                               ChangeFeed changeFeed,
+                               @Value("${avatars.import.parallelism:0}") int parallelism,
+                               @Value("${avatars.import.batch-size:100}") int batchSize) {
+        this.avatarBlobStore = avatarBlobStore;
+        this.thumbnailRenderer = thumbnailRenderer;
+        this.entityCache = entityCache;
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.changeFeed = changeFeed;
+        this.batchSize = batchSize;
+        // по умолчанию оставляем одно ядро потокам Tomcat
+        this.parallelism = parallelism > 0 ? parallelism
+                : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        this.executor = new ThreadPoolExecutor(this.parallelism, this.parallelism, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), importThreads());
+    }
+
+    public record ItemResult(String entry, Long studentId, String status, String message) {
+    }
+
+    public record ImportReport(int total, int imported, int unchanged, int failed, long millis,
+                               List<ItemResult> items) {
+    }
+
+    private record PreparedAvatar(String entry, long studentId, AvatarBlobStore.StoredBlob blob,
+                                  String mediaType, ThumbnailRenderer.Thumbnail thumbnail) {
+        String hash() {
+            return blob.hash();
+        }
+    }
+
+    private record ExistingAvatar(long id, String contentHash, String filePath) {
+    }
+
+    public ImportReport importZip(MultipartFile archive) throws IOException {
+        logger.debug("Was invoked method for importZip");
+        long started = System.currentTimeMillis();
+        List<ItemResult> results = new ArrayList<>();
+        Map<String, Future<PreparedAvatar>> pending = new LinkedHashMap<>();
+        Semaphore window = new Semaphore(parallelism * 2);
+
+        try (ZipInputStream zip = new ZipInputStream(archive.getInputStream())) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                String name = entry.getName();
+                String fileName = name.substring(name.lastIndexOf('/') + 1);
+                Long studentId = parseStudentId(fileName);
+                if (studentId == null) {
+                    results.add(new ItemResult(name, null, "FAILED", "Имя файла должно быть вида <id студента>.<расширение>"));
+                    continue;
+                }
+                byte[] content = zip.readNBytes((int) AvatarService.MAX_FILE_SIZE);
+                if (content.length >= AvatarService.MAX_FILE_SIZE) {
+                    results.add(new ItemResult(name, studentId, "FAILED", "Файл очень большой"));
+                    continue;
+                }
+                acquire(window);
+                try {
+                    pending.put(name, executor.submit(() -> {
+                        try {
+                            return prepare(name, studentId, fileName, content);
+                        } finally {
+                            window.release();
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    window.release();
+                    throw e;
+                }
+            }
+        }
+
+        List<PreparedAvatar> batch = new ArrayList<>(batchSize);
+        for (Map.Entry<String, Future<PreparedAvatar>> item : pending.entrySet()) {
+            try {
+                batch.add(item.getValue().get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                logger.warn("Failed to prepare avatar {}", item.getKey(), cause);
+                results.add(new ItemResult(item.getKey(), parseStudentId(item.getKey()), "FAILED", cause.getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Импорт прерван", e);
+            }
+            if (batch.size() == batchSize) {
+                results.addAll(writeBatch(batch));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            results.addAll(writeBatch(batch));
+        }
+
+        int imported = 0;
+        int unchanged = 0;
+        int failed = 0;
+        for (ItemResult result : results) {
+            switch (result.status()) {
+                case "IMPORTED" -> imported++;
+                case "UNCHANGED" -> unchanged++;
+                default -> failed++;
+            }
+        }
+        long millis = System.currentTimeMillis() - started;
+        logger.info("Imported {} avatars ({} unchanged, {} failed) in {} ms", imported, unchanged, failed, millis);
+        return new ImportReport(results.size(), imported, unchanged, failed, millis, results);
+    }
+
+    private PreparedAvatar prepare(String entry, long studentId, String fileName, byte[] content) throws IOException {
+        String extension = AvatarService.getExtension(fileName);
+        String mediaType = MediaTypeFactory.getMediaType(fileName)
+                .map(MediaType::toString)
+                .orElse(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        ThumbnailRenderer.Thumbnail thumbnail = thumbnailRenderer.render(content, extension, ThumbnailRenderer.DEFAULT_WIDTH, false);
+        AvatarBlobStore.StoredBlob blob = avatarBlobStore.store(content, extension, mediaType);
+        return new PreparedAvatar(entry, studentId, blob, mediaType, thumbnail);
+    }
+
+    private List<ItemResult> writeBatch(List<PreparedAvatar> batch) {
+        List<ItemResult> results = new ArrayList<>(batch.size());
+        // при повторах одного студента в архиве побеждает последний файл
+        Map<Long, PreparedAvatar> byStudent = new LinkedHashMap<>();
+        for (PreparedAvatar avatar : batch) {
+            PreparedAvatar replaced = byStudent.put(avatar.studentId(), avatar);
+            if (replaced != null) {
+                results.add(new ItemResult(replaced.entry(), replaced.studentId(), "FAILED",
+                        "В архиве есть более поздний файл для этого студента"));
+            }
+        }
+
+        List<ItemResult> written = new ArrayList<>();
+        try {
+            transactionTemplate.executeWithoutResult(status -> written.addAll(writeRows(byStudent)));
+        } catch (RuntimeException e) {
+            logger.error("Failed to write avatar import batch of {} items", byStudent.size(), e);
+            for (PreparedAvatar avatar : byStudent.values()) {
+                results.add(new ItemResult(avatar.entry(), avatar.studentId(), "FAILED", "Ошибка записи в базу данных"));
+            }
+            return results;
+        } finally {
+            // временные копии не перенесённых в хранилище файлов
+            batch.forEach(avatar -> avatar.blob().discard());
+        }
+        results.addAll(written);
+        return results;
+    }
+
+    private List<ItemResult> writeRows(Map<Long, PreparedAvatar> byStudent) {
+        List<ItemResult> results = new ArrayList<>(byStudent.size());
+        Map<String, Object> params = Map.of("ids", byStudent.keySet());
+        Set<Long> knownStudents = new HashSet<>(namedParameterJdbcTemplate.queryForList(
+                "SELECT id FROM student WHERE id IN (:ids)", params, Long.class));
+        Map<Long, ExistingAvatar> existing = new HashMap<>();
+        namedParameterJdbcTemplate.query(
+                "SELECT id, student_id, content_hash, file_path FROM avatar WHERE student_id IN (:ids)", params,
+                (RowCallbackHandler) rs -> existing.put(rs.getLong("student_id"), new ExistingAvatar(
+                        rs.getLong("id"), rs.getString("content_hash"), rs.getString("file_path"))));
+
+        List<PreparedAvatar> inserts = new ArrayList<>();
+        List<PreparedAvatar> updates = new ArrayList<>();
+        List<Long> updateIds = new ArrayList<>();
+        for (PreparedAvatar avatar : byStudent.values()) {
+            if (!knownStudents.contains(avatar.studentId())) {
+                results.add(new ItemResult(avatar.entry(), avatar.studentId(), "FAILED",
+                        "Студент с id " + avatar.studentId() + " не найден"));
+                continue;
+            }
+            ExistingAvatar current = existing.get(avatar.studentId());
+            if (current == null) {
+                inserts.add(avatar);
+            } else if (avatar.hash().equals(current.contentHash())) {
+                results.add(new ItemResult(avatar.entry(), avatar.studentId(), "UNCHANGED", null));
+                continue;
+            } else {
+                updates.add(avatar);
+                updateIds.add(current.id());
+            }
+            results.add(new ItemResult(avatar.entry(), avatar.studentId(), "IMPORTED", null));
+        }
+
+        List<PreparedAvatar> written = new ArrayList<>(inserts);
+        written.addAll(updates);
+        jdbcTemplate.batchUpdate("INSERT INTO avatar_variant (content_hash, width, crop, media_type, data) " +
+                "VALUES (?, ?, false, ?, ?) ON CONFLICT (content_hash, width, crop) DO NOTHING", new ThumbnailRows(written));
+        jdbcTemplate.batchUpdate("INSERT INTO avatar (student_id, file_path, file_size, media_type, content_hash, " +
+                "thumbnail_status, thumbnail_attempts) VALUES (?, ?, ?, ?, ?, ?, 0)", new AvatarRows(inserts, null));
+        jdbcTemplate.batchUpdate("UPDATE avatar SET student_id = ?, file_path = ?, file_size = ?, media_type = ?, " +
+                "content_hash = ?, thumbnail_status = ?, thumbnail_attempts = 0 WHERE id = ?", new AvatarRows(updates, updateIds));
+
+        List<AvatarBlobStore.StoredBlob> acquired = new ArrayList<>(written.size());
+        for (PreparedAvatar avatar : written) {
+            acquired.add(avatar.blob());
+        }
+        try {
+            avatarBlobStore.acquireAll(acquired);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        for (PreparedAvatar avatar : updates) {
+            ExistingAvatar previous = existing.get(avatar.studentId());
+            boolean released = previous.contentHash() != null && avatarBlobStore.release(previous.contentHash());
+            if (!released && previous.filePath() != null) {
+                avatarBlobStore.deleteLegacyFile(Path.of(previous.filePath()), previous.contentHash() != null
+                        ? previous.contentHash() : AvatarService.LEGACY_HASH_PREFIX + previous.id());
+            }
+        }
+        List<ChangeFeed.Change> changes = new ArrayList<>(written.size());
+        for (PreparedAvatar avatar : written) {
+            changes.add(new ChangeFeed.Change(ChangeFeed.AVATAR, avatar.studentId(), ChangeFeed.Operation.UPSERT, null));
+        }
+        changeFeed.recordAll(changes);
+        byStudent.keySet().forEach(entityCache::evictAvatar);
+        return results;
+    }
+
+    private static class AvatarRows implements BatchPreparedStatementSetter {
+        private final List<PreparedAvatar> rows;
+        private final List<Long> ids;
+
+        AvatarRows(List<PreparedAvatar> rows, List<Long> ids) {
+            this.rows = rows;
+            this.ids = ids;
+        }
+
+        @Override
+        public void setValues(PreparedStatement ps, int i) throws SQLException {
+            PreparedAvatar row = rows.get(i);
+            ps.setLong(1, row.studentId());
+            ps.setString(2, row.blob().path().toString());
+            ps.setLong(3, row.blob().size());
+            ps.setString(4, row.mediaType());
+            ps.setString(5, row.hash());
+            ps.setString(6, ThumbnailStatus.READY.name());
+            if (ids != null) {
+                ps.setLong(7, ids.get(i));
+            }
+        }
+
+        @Override
+        public int getBatchSize() {
+            return rows.size();
+        }
+    }
+
+    private static class ThumbnailRows implements BatchPreparedStatementSetter {
+        private final List<PreparedAvatar> rows;
+
+        ThumbnailRows(List<PreparedAvatar> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public void setValues(PreparedStatement ps, int i) throws SQLException {
+            PreparedAvatar row = rows.get(i);
+            ps.setString(1, row.hash());
+            ps.setInt(2, ThumbnailRenderer.DEFAULT_WIDTH);
+            ps.setString(3, row.thumbnail().mediaType());
+            ps.setBytes(4, row.thumbnail().data());
+        }
+
+        @Override
+        public int getBatchSize() {
+            return rows.size();
+        }
+    }
+
+    private static Long parseStudentId(String entryName) {
+        String base = entryName.substring(entryName.lastIndexOf('/') + 1);
+        int dot = base.lastIndexOf('.');
+        if (dot > 0) {
+            base = base.substring(0, dot);
+        }
+        try {
+            return Long.parseLong(base);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void acquire(Semaphore window) throws IOException {
+        try {
+            window.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Импорт прерван", e);
+        }
+    }
+
+    private static ThreadFactory importThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "avatar-import-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
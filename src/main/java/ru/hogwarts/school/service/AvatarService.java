@@ -1,51 +1,75 @@
 package ru.hogwarts.school.service;
 
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
+import ru.hogwarts.school.dto.AvatarInfo;
+import ru.hogwarts.school.dto.AvatarVersion;
+import ru.hogwarts.school.dto.CursorPage;
 import ru.hogwarts.school.model.Avatar;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.model.ThumbnailStatus;
 import ru.hogwarts.school.repositories.AvatarRepository;
+import ru.hogwarts.school.utility.TransactionCallbacks;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.*;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
-
-import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @Service
-@Transactional
 public class AvatarService {
 
     private static final Logger logger = LoggerFactory.getLogger(AvatarService.class);
 
-    @Value("${students.avatar.dir.path}")
-    private String avatarsDir;
+    public static final long MAX_FILE_SIZE = 2048 * 600;
+
+    // ключ миниатюр для аватаров, загруженных до появления хранилища по хэшу
+    public static final String LEGACY_HASH_PREFIX = "legacy-";
+
+    private static final int MAX_PAGE_SIZE = 500;
 
     private final StudentService studentService;
     private final AvatarRepository avatarRepository;
-
-    public AvatarService(StudentService studentService, AvatarRepository avatarRepository) {
+    private final AvatarBlobStore avatarBlobStore;
+    private final ThumbnailWorker thumbnailWorker;
+    private final ThumbnailRenderer thumbnailRenderer;
+    private final AvatarVariantService avatarVariantService;
+    private final EntityCache entityCache;
+    private final UploadMetrics uploadMetrics;
+    private final ChangeFeed changeFeed;
+
+    public AvatarService(StudentService studentService, AvatarRepository avatarRepository,
+                         AvatarBlobStore avatarBlobStore, ThumbnailWorker thumbnailWorker,
+                         ThumbnailRenderer thumbnailRenderer,
+                         AvatarVariantService avatarVariantService, EntityCache entityCache, UploadMetrics uploadMetrics,
+                         ChangeFeed changeFeed) {
         this.studentService = studentService;
         this.avatarRepository = avatarRepository;
+        this.avatarBlobStore = avatarBlobStore;
+        this.thumbnailWorker = thumbnailWorker;
+        this.thumbnailRenderer = thumbnailRenderer;
+        this.avatarVariantService = avatarVariantService;
+        this.entityCache = entityCache;
+        this.uploadMetrics = uploadMetrics;
+        this.changeFeed = changeFeed;
     }
 
+    @Transactional
     public void processAndUploadAvatar(Long studentId, MultipartFile file) throws IOException {
-        logger.info("Was invoked method for processAndUploadAvatar");
+        logger.debug("Was invoked method for processAndUploadAvatar");
         logger.debug("Processing upload for studentId={} with file size={}", studentId, file.getSize());
-        if (file.getSize() >= 2048 * 600) {
+        if (file.getSize() >= MAX_FILE_SIZE) {
             logger.warn("File size exceeds limit: size={}", file.getSize());
             throw new IllegalArgumentException("Файл очень большой");
         }
+        long allocatedBefore = uploadMetrics.currentThreadAllocatedBytes();
         Student student;
         try {
             student = studentService.findStudent(studentId);
@@ -54,42 +78,56 @@ public class AvatarService {
             logger.error("Error finding student with ID={}", studentId, e);
             throw e;
         }
-        uploadAvatar(studentId, file);
+        uploadAvatar(student, file);
+        uploadMetrics.recordUpload(file.getSize(), allocatedBefore);
     }
 
-    public void uploadAvatar(Long studentId, MultipartFile file) throws IOException {
-        logger.info("Was invoked method for uploadAvatar");
-        Student student;
+    private void uploadAvatar(Student student, MultipartFile file) throws IOException {
+        logger.debug("Was invoked method for uploadAvatar");
+        long studentId = student.getId();
         try {
-            student = studentService.findStudent(studentId);
-            logger.debug("Found student: {}", student);
-        } catch (Exception e) {
-            logger.error("Error finding student with ID={}", studentId, e);
-            throw e;
-        }
+            Avatar avatar = findAvatar(studentId);
+            String previousHash = avatar.getContentHash();
+            String previousPath = avatar.getFilePath();
+
+            String extension = getExtension(file.getOriginalFilename());
+            AtomicReference<ThumbnailRenderer.Thumbnail> rendered = new AtomicReference<>();
+            AvatarBlobStore.StoredBlob blob = avatarBlobStore.store(file, extension,
+                    content -> rendered.set(renderThumbnail(content, extension, studentId)));
+            if (blob.hash().equals(previousHash)) {
+                blob.discard();
+                logger.info("Avatar for studentId={} is unchanged, skipping upload", studentId);
+                return;
+            }
+            avatarBlobStore.acquire(blob);
 
-        try {
-            Path filePath = Path.of(avatarsDir, studentId + "." + getExtension(file.getOriginalFilename()));
-            Files.createDirectories(filePath.getParent());
-            Files.deleteIfExists(filePath);
-
-            try (InputStream is = file.getInputStream();
-                 OutputStream os = Files.newOutputStream(filePath, CREATE_NEW);
-                 BufferedInputStream bis = new BufferedInputStream(is, 1024);
-                 BufferedOutputStream bos = new BufferedOutputStream(os, 1024);
-            ) {
-                logger.debug("Starting transfer of input stream to output stream");
-                bis.transferTo(bos);
+            boolean thumbnailReady = blob.known() && avatarVariantService.hasThumbnail(blob.hash());
+            if (thumbnailReady) {
+                logger.debug("Reusing thumbnail of known avatar blob {}", blob.hash());
             }
 
-            Avatar avatar = findAvatar(studentId);
             avatar.setStudent(student);
-            avatar.setFilePath(filePath.toString());
-            avatar.setFileSize(file.getSize());
+            avatar.setFilePath(blob.path().toString());
+            avatar.setFileSize(blob.size());
             avatar.setMediaType(file.getContentType());
-            avatar.setData(generateImageData(filePath));
+            avatar.setContentHash(blob.hash());
+            avatar.setThumbnailStatus(thumbnailReady ? ThumbnailStatus.READY : ThumbnailStatus.PENDING);
+            avatar.setThumbnailAttempts(0);
+
+            Avatar saved = avatarRepository.save(avatar);
+            // аватар в ленте адресуется id студента - по нему его и запрашивают
+            changeFeed.record(ChangeFeed.AVATAR, studentId, ChangeFeed.Operation.UPSERT, null);
+            entityCache.evictAvatar(studentId);
+            if (!thumbnailReady) {
+                ThumbnailRenderer.Thumbnail thumbnail = rendered.get();
+                TransactionCallbacks.afterCommit(() -> thumbnailWorker.submit(saved.getId(), blob.hash(), thumbnail));
+            }
 
-            avatarRepository.save(avatar);
+            boolean released = previousHash != null && avatarBlobStore.release(previousHash);
+            if (!released && previousPath != null) {
+                avatarBlobStore.deleteLegacyFile(Path.of(previousPath),
+                        previousHash != null ? previousHash : LEGACY_HASH_PREFIX + avatar.getId());
+            }
             logger.info("Avatar uploaded successfully for studentId={}", studentId);
         } catch (IOException e) {
             logger.error("Error during uploading avatar for studentId={}", studentId, e);
@@ -97,8 +135,25 @@ public class AvatarService {
         }
     }
 
+    // миниатюра декодируется из того же прохода по загрузке, что пишет файл и считает хэш, под бюджетом
+    // декодирования. Не вышло - null, и воркер сделает её из файла с повторами, как раньше
+    private ThumbnailRenderer.Thumbnail renderThumbnail(InputStream content, String extension, long studentId) {
+        try {
+            return thumbnailRenderer.render(content, extension, ThumbnailRenderer.DEFAULT_WIDTH);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not render thumbnail from upload for studentId={}, deferring to worker: {}",
+                    studentId, e.getMessage());
+            return null;
+        }
+    }
+
+    // хэш содержимого и статус миниатюры без загрузки самого аватара; null - аватара нет
+    public AvatarVersion findAvatarVersion(Long studentId) {
+        return avatarRepository.findVersionByStudentId(studentId).orElse(null);
+    }
+
     public Avatar findAvatar(Long studentId) {
-        logger.info("Was invoked method for findAvatar");
+        logger.debug("Was invoked method for findAvatar");
         try {
             return avatarRepository.findByStudentId(studentId).orElseGet(() -> {
                 logger.warn("No avatar found for studentId={}", studentId);
@@ -110,7 +165,7 @@ public class AvatarService {
         }
     }
 
-    private String getExtension(String fileName) {
+    static String getExtension(String fileName) {
         int lastDotIndex = fileName.lastIndexOf(".");
         String ext = "png";
         if (lastDotIndex != -1 && lastDotIndex != fileName.length() - 1) {
@@ -120,38 +175,25 @@ public class AvatarService {
         return ext;
     }
 
-    private byte[] generateImageData(Path filePath) throws IOException {
-        logger.info("Was invoked method for generateImageData");
-        try (InputStream is = Files.newInputStream(filePath);
-             BufferedInputStream bis = new BufferedInputStream(is, 1024);
-             ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            BufferedImage image = ImageIO.read(bis);
-            if (image == null) {
-                logger.error("Failed to read image from path: {}", filePath);
-                throw new IOException("Не удалось прочитать изображение");
-            }
-
-            int width = 100;
-            int height = (image.getHeight() * width) / image.getWidth();
-            if (image.getWidth() == 0) {
-                height = width;
-            }
-
-            BufferedImage preview = new BufferedImage(100, height, image.getType());
-            Graphics2D graphics = preview.createGraphics();
-            graphics.drawImage(image, 0, 0, 100, height, null);
-            graphics.dispose();
-
-            logger.debug("Writing resized image to byte array");
-            ImageIO.write(preview, getExtension(filePath.getFileName().toString()), baos);
-            return baos.toByteArray();
-        }
+    public UploadMetrics.Stats getUploadStats() {
+        return uploadMetrics.getStats();
     }
 
-    public java.util.List<Avatar> getAvatars(Integer pageNumber, Integer pageSize) {
-        logger.info("Was invoked method for getAvatars");
+    public List<Avatar> getAvatars(Integer pageNumber, Integer pageSize) {
+        logger.debug("Was invoked method for getAvatars");
         logger.debug("Fetching page {} with size {}", pageNumber, pageSize);
         PageRequest pageRequest = PageRequest.of(pageNumber - 1, pageSize);
         return avatarRepository.findAll(pageRequest).getContent();
     }
-}
\ No newline at end of file
+
+    public CursorPage<AvatarInfo> getAvatarInfos(Long after, int limit) {
+        logger.debug("Was invoked method for getAvatarInfos");
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Размер страницы должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+        List<AvatarInfo> items = avatarRepository.findInfoAfter(after != null ? after : 0L, PageRequest.of(0, limit));
+        Long nextCursor = items.size() == limit ? items.get(items.size() - 1).id() : null;
+        logger.debug("Fetched {} avatar infos after id={}", items.size(), after);
+        return new CursorPage<>(items, nextCursor);
+    }
+}
@@ -0,0 +1,118 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.AvatarVariant;
+import ru.hogwarts.school.repositories.AvatarVariantRepository;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+@Service
+public class AvatarVariantService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AvatarVariantService.class);
+
+    public static final Set<Integer> SUPPORTED_WIDTHS = Set.of(48, 100, 256, 512);
+
+    private final AvatarVariantRepository avatarVariantRepository;
+    private final ThumbnailRenderer thumbnailRenderer;
+    private final ConcurrentMap<VariantKey, CompletableFuture<AvatarVariant>> inProgress = new ConcurrentHashMap<>();
+
+    public AvatarVariantService(AvatarVariantRepository avatarVariantRepository, ThumbnailRenderer thumbnailRenderer) {
+        this.avatarVariantRepository = avatarVariantRepository;
+        this.thumbnailRenderer = thumbnailRenderer;
+    }
+
+    private record VariantKey(String contentHash, int width, boolean crop) {
+    }
+
+    public AvatarVariant getVariant(Avatar avatar, int width, boolean crop) throws IOException {
+        logger.debug("Was invoked method for getVariant");
+        if (!SUPPORTED_WIDTHS.contains(width)) {
+            throw new IllegalArgumentException("Допустимая ширина: 48, 100, 256, 512");
+        }
+        if (avatar.getFilePath() == null) {
+            throw new IllegalArgumentException("У аватара нет исходного файла");
+        }
+        String contentHash = avatar.getContentHash() != null ? avatar.getContentHash()
+                : AvatarService.LEGACY_HASH_PREFIX + avatar.getId();
+        VariantKey key = new VariantKey(contentHash, width, crop);
+
+        AvatarVariant stored = avatarVariantRepository.findByContentHashAndWidthAndCrop(contentHash, width, crop)
+                .orElse(null);
+        if (stored != null) {
+            return stored;
+        }
+
+        CompletableFuture<AvatarVariant> future = new CompletableFuture<>();
+        CompletableFuture<AvatarVariant> existing = inProgress.putIfAbsent(key, future);
+        if (existing != null) {
+            logger.debug("Waiting for concurrent generation of variant {}", key);
+            return join(existing);
+        }
+        try {
+            future.complete(generate(avatar, key));
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        } finally {
+            inProgress.remove(key, future);
+        }
+        return join(future);
+    }
+
+    public boolean hasThumbnail(String contentHash) {
+        return avatarVariantRepository.existsByContentHashAndWidthAndCrop(contentHash, ThumbnailRenderer.DEFAULT_WIDTH, false);
+    }
+
+    public void storeThumbnail(String contentHash, String mediaType, byte[] data) {
+        avatarVariantRepository.insertIfAbsent(contentHash, ThumbnailRenderer.DEFAULT_WIDTH, false, mediaType, data);
+    }
+
+    private AvatarVariant generate(Avatar avatar, VariantKey key) throws IOException {
+        AvatarVariant stored = avatarVariantRepository
+                .findByContentHashAndWidthAndCrop(key.contentHash(), key.width(), key.crop())
+                .orElse(null);
+        if (stored != null) {
+            return stored;
+        }
+        AvatarVariant variant = new AvatarVariant();
+        variant.setContentHash(key.contentHash());
+        variant.setWidth(key.width());
+        variant.setCrop(key.crop());
+        ThumbnailRenderer.Thumbnail thumbnail = thumbnailRenderer.render(Path.of(avatar.getFilePath()), key.width(), key.crop());
+        variant.setMediaType(thumbnail.mediaType());
+        variant.setData(thumbnail.data());
+        try {
+            return avatarVariantRepository.save(variant);
+        } catch (DataIntegrityViolationException e) {
+            logger.debug("Variant {} was stored by another instance", key);
+            return avatarVariantRepository
+                    .findByContentHashAndWidthAndCrop(key.contentHash(), key.width(), key.crop())
+                    .orElseThrow(() -> e);
+        }
+    }
+
+    private AvatarVariant join(CompletableFuture<AvatarVariant> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package ru.hogwarts.school.service;
+
+public class ChangeCursorExpiredException extends RuntimeException {
+
+    public ChangeCursorExpiredException(String message) {
+        super(message);
+    }
+}
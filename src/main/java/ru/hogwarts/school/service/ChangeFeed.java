@@ -0,0 +1,312 @@
+package ru.hogwarts.school.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.hogwarts.school.dto.ChangeEvent;
+import ru.hogwarts.school.dto.ChangePage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// изменения пишутся в таблицу change_event в той же транзакции, что и сами данные (outbox).
+// номер seq раздаёт один упорядочиватель уже после коммита, поэтому seq идут без пропусков
+// в порядке видимости, и по ним можно безопасно продолжать чтение с курсора
+@Service
+public class ChangeFeed {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChangeFeed.class);
+
+    public static final String STUDENT = "student";
+    public static final String FACULTY = "faculty";
+    public static final String AVATAR = "avatar";
+
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    // ключ advisory lock: упорядочивает только один экземпляр приложения
+    private static final long SEQUENCER_LOCK = 0x5C400C0DEL;
+
+    private static final String SELECT_SINCE = "SELECT seq, entity_type, entity_id, operation, version, created_at " +
+            "FROM change_event WHERE seq > ? ORDER BY seq LIMIT ?";
+
+    private static final RowMapper<ChangeEvent> EVENT_MAPPER = (rs, rowNum) -> new ChangeEvent(
+            rs.getLong("seq"),
+            rs.getString("entity_type"),
+            rs.getLong("entity_id"),
+            rs.getString("operation"),
+            rs.getObject("version", Long.class),
+            rs.getTimestamp("created_at").toInstant());
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int sequenceBatchSize;
+    private final long streamTimeoutMs;
+    private final int retentionDays;
+    private final long sendTimeoutMs;
+    private final ThreadPoolExecutor sender;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    public ChangeFeed(JdbcTemplate jdbcTemplate,
+                      TransactionTemplate transactionTemplate,
+                      @Value("${changes.sequence-batch-size:1000}") int sequenceBatchSize,
+                      @Value("${changes.stream-timeout-ms:1800000}") long streamTimeoutMs,
+                      @Value("${changes.retention-days:7}") int retentionDays,
+                      @Value("${changes.send-pool-size:4}") int sendPoolSize,
+                      @Value("${changes.send-queue-capacity:1000}") int sendQueueCapacity,
+                      @Value("${changes.send-timeout-ms:10000}") long sendTimeoutMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.sequenceBatchSize = sequenceBatchSize;
+        this.streamTimeoutMs = streamTimeoutMs;
+        this.retentionDays = retentionDays;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.sender = new ThreadPoolExecutor(sendPoolSize, sendPoolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(sendQueueCapacity), namedThreads("change-stream-"));
+    }
+
+    public enum Operation {
+        UPSERT, DELETE
+    }
+
+    public record Change(String entityType, long entityId, Operation operation, Long version) {
+    }
+
+    // у подписчика не больше одной отправки в очереди или в работе: события уходят по порядку,
+    // а пропущенные за это время дочитываются от курсора следующим опросом
+    private static final class Subscriber {
+        private final SseEmitter emitter;
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private volatile long sendStartedAt;
+        private volatile long cursor;
+
+        Subscriber(SseEmitter emitter, long cursor) {
+            this.emitter = emitter;
+            this.cursor = cursor;
+        }
+    }
+
+    // без транзакции вызывающего событие разошлось бы с данными, поэтому она обязательна
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void record(String entityType, long entityId, Operation operation, Long version) {
+        jdbcTemplate.update("INSERT INTO change_event (entity_type, entity_id, operation, version) VALUES (?, ?, ?, ?)",
+                entityType, entityId, operation.name(), version);
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordAll(List<Change> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(changes.size());
+        for (Change change : changes) {
+            rows.add(new Object[]{change.entityType(), change.entityId(), change.operation().name(), change.version()});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO change_event (entity_type, entity_id, operation, version) VALUES (?, ?, ?, ?)",
+                rows);
+    }
+
+    public long getHead() {
+        Long head = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(seq), 0) FROM change_event", Long.class);
+        return head != null ? head : 0;
+    }
+
+    public ChangePage getChanges(long since, int limit) {
+        logger.debug("Reading changes since {}", since);
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Размер страницы должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+        List<ChangeEvent> items = jdbcTemplate.query(SELECT_SINCE, EVENT_MAPPER, since, limit);
+        // seq идут без пропусков, так что разрыв после курсора значит, что события уже удалены по сроку
+        if (!items.isEmpty() && items.get(0).seq() != since + 1) {
+            throw new ChangeCursorExpiredException("События после курсора " + since
+                    + " уже удалены, загрузите данные заново и продолжите с курсора " + getHead());
+        }
+        long nextCursor = items.isEmpty() ? since : items.get(items.size() - 1).seq();
+        return new ChangePage(items, nextCursor);
+    }
+
+    // lastEventId - последний полученный клиентом seq, без него поток начинается с текущего момента
+    public SseEmitter subscribe(Long lastEventId) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        Subscriber subscriber = new Subscriber(emitter, lastEventId != null ? lastEventId : getHead());
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        logger.debug("Change stream subscribed from seq {}, {} subscribers", subscriber.cursor, subscribers.size());
+        return emitter;
+    }
+
+    @Scheduled(fixedDelayString = "${changes.sequence-interval-ms:200}")
+    public void sequence() {
+        Integer sequenced = transactionTemplate.execute(status -> {
+            Boolean locked = jdbcTemplate.queryForObject("SELECT pg_try_advisory_xact_lock(?)", Boolean.class,
+                    SEQUENCER_LOCK);
+            if (!Boolean.TRUE.equals(locked)) {
+                return 0;
+            }
+            return jdbcTemplate.update("UPDATE change_event c SET seq = n.seq FROM (" +
+                    "SELECT id, (SELECT COALESCE(MAX(seq), 0) FROM change_event) + ROW_NUMBER() OVER (ORDER BY id) AS seq " +
+                    "FROM change_event WHERE seq IS NULL ORDER BY id LIMIT ?) n WHERE c.id = n.id", sequenceBatchSize);
+        });
+        if (sequenced != null && sequenced > 0) {
+            logger.debug("Sequenced {} change events", sequenced);
+        }
+    }
+
+    // подписчики, догнавшие поток, стоят на одном курсоре и обходятся одним запросом на экземпляр;
+    // отстающие читают от своих курсоров и не задерживают остальных
+    @Scheduled(fixedDelayString = "${changes.poll-interval-ms:500}")
+    public void publish() {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        Map<Long, List<Subscriber>> byCursor = new HashMap<>();
+        for (Subscriber subscriber : subscribers) {
+            if (!isBusy(subscriber)) {
+                byCursor.computeIfAbsent(subscriber.cursor, cursor -> new ArrayList<>()).add(subscriber);
+            }
+        }
+        for (Map.Entry<Long, List<Subscriber>> group : byCursor.entrySet()) {
+            List<ChangeEvent> events = jdbcTemplate.query(SELECT_SINCE, EVENT_MAPPER, group.getKey(), MAX_PAGE_SIZE);
+            if (!events.isEmpty()) {
+                group.getValue().forEach(subscriber -> dispatch(subscriber, () -> send(subscriber, events)));
+            }
+        }
+    }
+
+    // подписчику, которому сейчас идут события, пинг не нужен
+    @Scheduled(fixedDelayString = "${changes.heartbeat-interval-ms:15000}")
+    public void heartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            if (!isBusy(subscriber)) {
+                dispatch(subscriber, () -> ping(subscriber));
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${changes.purge-interval-ms:3600000}")
+    public void purge() {
+        Integer deleted = transactionTemplate.execute(status -> jdbcTemplate.update(
+                "DELETE FROM change_event WHERE seq IS NOT NULL AND created_at < now() - make_interval(days => ?)",
+                retentionDays));
+        if (deleted != null && deleted > 0) {
+            logger.info("Purged {} change events older than {} days", deleted, retentionDays);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sender.shutdownNow();
+    }
+
+    // отправка блокируется на медленном клиенте, поэтому идёт в своём пуле, а не в общем потоке @Scheduled:
+    // упорядочиватель, очистка и остальные задачи по расписанию не ждут сокетов подписчиков
+    private void dispatch(Subscriber subscriber, Runnable task) {
+        if (!subscriber.sending.compareAndSet(false, true)) {
+            return;
+        }
+        subscriber.sendStartedAt = System.nanoTime();
+        try {
+            sender.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    subscriber.sending.set(false);
+                    if (!subscribers.contains(subscriber)) {
+                        subscriber.emitter.complete();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            subscriber.sending.set(false);
+            drop(subscriber, e);
+        }
+    }
+
+    // подписчик, чья отправка не уложилась в таймаут, снимается с рассылки, а emitter закрывает поток отправки,
+    // когда запись в сокет вернётся: emitter держит одну блокировку на send и complete, и закрытие отсюда
+    // встало бы за зависшей записью. Клиент переподключится с Last-Event-ID
+    private boolean isBusy(Subscriber subscriber) {
+        if (!subscriber.sending.get()) {
+            return false;
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - subscriber.sendStartedAt);
+        if (elapsedMs > sendTimeoutMs && subscribers.remove(subscriber)) {
+            logger.debug("Change stream subscriber at seq {} did not accept events in {} ms, unsubscribed",
+                    subscriber.cursor, sendTimeoutMs);
+            // отправка могла закончиться между проверками и уже не увидит, что подписчик снят
+            if (!subscriber.sending.get()) {
+                subscriber.emitter.complete();
+            }
+        }
+        return true;
+    }
+
+    private void ping(Subscriber subscriber) {
+        try {
+            subscriber.emitter.send(SseEmitter.event().comment("ping"));
+        } catch (IOException | IllegalStateException e) {
+            drop(subscriber, e);
+        }
+    }
+
+    private void send(Subscriber subscriber, List<ChangeEvent> events) {
+        try {
+            for (ChangeEvent event : events) {
+                if (event.seq() <= subscriber.cursor) {
+                    continue;
+                }
+                if (event.seq() != subscriber.cursor + 1) {
+                    subscriber.emitter.send(SseEmitter.event().name("expired")
+                            .data("События после " + subscriber.cursor + " уже удалены, загрузите данные заново"));
+                    subscriber.emitter.complete();
+                    subscribers.remove(subscriber);
+                    return;
+                }
+                subscriber.emitter.send(SseEmitter.event()
+                        .id(String.valueOf(event.seq()))
+                        .name("change")
+                        .data(event));
+                subscriber.cursor = event.seq();
+            }
+        } catch (IOException | IllegalStateException e) {
+            drop(subscriber, e);
+        }
+    }
+
+    private void drop(Subscriber subscriber, Exception e) {
+        subscribers.remove(subscriber);
+        subscriber.emitter.completeWithError(e);
+        logger.debug("Dropped change stream subscriber at seq {}: {}", subscriber.cursor, e.getMessage());
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,79 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+@Component
+public class DecodeBudget {
+
+    private static final Logger logger = LoggerFactory.getLogger(DecodeBudget.class);
+
+    private static final int PERMIT_BYTES = 1024;
+
+    private final Semaphore permits;
+    private final int totalPermits;
+    private final long acquireTimeoutMs;
+    private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    private final AtomicLong inUseBytes = new AtomicLong();
+    private final AtomicLong peakInUseBytes = new AtomicLong();
+    private final AtomicLong peakHeapUsedBytes = new AtomicLong();
+    private final LongAdder decodes = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public DecodeBudget(@Value("${avatars.decode.budget-bytes:268435456}") long budgetBytes,
+                        @Value("${avatars.decode.acquire-timeout-ms:10000}") long acquireTimeoutMs) {
+        this.totalPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetBytes / PERMIT_BYTES));
+        this.permits = new Semaphore(totalPermits, true);
+        this.acquireTimeoutMs = acquireTimeoutMs;
+    }
+
+    public record Stats(long budgetBytes, long inUseBytes, long peakInUseBytes, int waiting,
+                        long decodes, long rejected, long peakHeapUsedBytes) {
+    }
+
+    public void acquire(long estimatedBytes) throws IOException {
+        int required = permitsFor(estimatedBytes);
+        try {
+            if (!permits.tryAcquire(required, acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                rejected.increment();
+                logger.warn("Decode budget exhausted, rejecting image of ~{} bytes", estimatedBytes);
+                throw new DecodeBudgetExceededException("Сервер занят обработкой изображений, попробуйте позже");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Ожидание бюджета памяти прервано");
+        }
+        long bytes = (long) required * PERMIT_BYTES;
+        peakInUseBytes.accumulateAndGet(inUseBytes.addAndGet(bytes), Math::max);
+    }
+
+    public void release(long estimatedBytes) {
+        int required = permitsFor(estimatedBytes);
+        decodes.increment();
+        peakHeapUsedBytes.accumulateAndGet(memoryBean.getHeapMemoryUsage().getUsed(), Math::max);
+        inUseBytes.addAndGet(-(long) required * PERMIT_BYTES);
+        permits.release(required);
+    }
+
+    public Stats getStats() {
+        return new Stats((long) totalPermits * PERMIT_BYTES, inUseBytes.get(), peakInUseBytes.get(),
+                permits.getQueueLength(), decodes.sum(), rejected.sum(), peakHeapUsedBytes.get());
+    }
+
+    // картинка больше всего бюджета получает его целиком, а не отклоняется навсегда
+    private int permitsFor(long estimatedBytes) {
+        long required = (estimatedBytes + PERMIT_BYTES - 1) / PERMIT_BYTES;
+        return (int) Math.max(1, Math.min(totalPermits, required));
+    }
+}
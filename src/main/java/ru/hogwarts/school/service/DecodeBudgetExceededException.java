@@ -0,0 +1,10 @@
+package ru.hogwarts.school.service;
+
+import java.io.IOException;
+
+public class DecodeBudgetExceededException extends IOException {
+
+    public DecodeBudgetExceededException(String message) {
+        super(message);
+    }
+}
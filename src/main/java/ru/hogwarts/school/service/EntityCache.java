@@ -0,0 +1,186 @@
+package ru.hogwarts.school.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.model.Student;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Function;
+
+@Component
+public class EntityCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(EntityCache.class);
+
+    public static final String CHANNEL = "school_cache";
+
+    private static final String STUDENT = "student";
+    private static final String FACULTY = "faculty";
+    // аватар адресуется id студента
+    private static final String AVATAR = "avatar";
+
+    // полезная нагрузка NOTIFY ограничена 8000 байт, длинные списки id режем на несколько уведомлений
+    private static final int MAX_PAYLOAD_LENGTH = 7000;
+
+    private final Cache<Long, Student> students;
+    private final FacultyCatalog facultyCatalog;
+    private final ThumbnailCache thumbnailCache;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate notifyTransaction;
+
+    // ttl ограничивает устаревание, если уведомление от другого экземпляра потерялось
+    public EntityCache(JdbcTemplate jdbcTemplate,
+                       PlatformTransactionManager transactionManager,
+                       FacultyCatalog facultyCatalog,
+                       ThumbnailCache thumbnailCache,
+                       @Value("${school.cache.max-size:10000}") long maxSize,
+                       @Value("${school.cache.ttl-seconds:60}") long ttlSeconds) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.facultyCatalog = facultyCatalog;
+        this.thumbnailCache = thumbnailCache;
+        this.notifyTransaction = new TransactionTemplate(transactionManager);
+        this.students = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .build();
+    }
+
+    public Student getStudent(long id, Function<Long, Student> loader) {
+        return students.get(id, loader);
+    }
+
+    public Student peekStudent(long id) {
+        return students.getIfPresent(id);
+    }
+
+    public void evictStudent(long id) {
+        evict(STUDENT, id);
+    }
+
+    public void evictFaculty(long id) {
+        evict(FACULTY, id);
+    }
+
+    public void evictAvatar(long studentId) {
+        evict(AVATAR, studentId);
+    }
+
+    // вызывается слушателем уведомлений: сообщение приходит и от других экземпляров, и от нашего.
+    // формат - "тип:id,id,..."
+    void onNotification(String payload) {
+        int separator = payload.indexOf(':');
+        if (separator < 0) {
+            logger.warn("Ignoring malformed cache notification '{}'", payload);
+            return;
+        }
+        List<Long> ids = new ArrayList<>();
+        try {
+            for (String id : payload.substring(separator + 1).split(",")) {
+                ids.add(Long.parseLong(id));
+            }
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring malformed cache notification '{}'", payload);
+            return;
+        }
+        String type = payload.substring(0, separator);
+        for (long id : ids) {
+            invalidateLocal(type, id);
+            if (FACULTY.equals(type)) {
+                // своё изменение каталог уже применил, чужое перечитываем из базы
+                facultyCatalog.reload(id);
+            }
+        }
+    }
+
+    void invalidateAll() {
+        students.invalidateAll();
+        thumbnailCache.invalidateAll();
+        facultyCatalog.refresh();
+    }
+
+    // id копятся до конца транзакции и уходят одним NOTIFY в ней же: Postgres доставит его только
+    // после коммита, а при откате не доставит вовсе. Локальный кэш сбрасываем после коммита
+    private void evict(String type, long id) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidateLocal(type, id);
+            Map<String, Set<Long>> single = Map.of(type, Set.of(id));
+            try {
+                notifyTransaction.executeWithoutResult(status -> sendNotifications(single));
+            } catch (RuntimeException e) {
+                logger.warn("Failed to notify other instances about {} {}", type, id, e);
+            }
+            return;
+        }
+        Evictions evictions = (Evictions) TransactionSynchronizationManager.getResource(this);
+        if (evictions == null) {
+            evictions = new Evictions();
+            TransactionSynchronizationManager.bindResource(this, evictions);
+            TransactionSynchronizationManager.registerSynchronization(evictions);
+        }
+        evictions.ids.computeIfAbsent(type, t -> new LinkedHashSet<>()).add(id);
+    }
+
+    private void sendNotifications(Map<String, Set<Long>> ids) {
+        ids.forEach((type, typeIds) -> {
+            StringBuilder payload = new StringBuilder(type).append(':');
+            int prefixLength = payload.length();
+            for (long id : typeIds) {
+                if (payload.length() > MAX_PAYLOAD_LENGTH) {
+                    sendNotification(payload);
+                    payload.setLength(prefixLength);
+                }
+                if (payload.length() > prefixLength) {
+                    payload.append(',');
+                }
+                payload.append(id);
+            }
+            sendNotification(payload);
+        });
+    }
+
+    private void sendNotification(CharSequence payload) {
+        jdbcTemplate.query("SELECT pg_notify(?, ?)", (RowCallbackHandler) rs -> {
+        }, CHANNEL, payload.toString());
+    }
+
+    private void invalidateLocal(String type, long id) {
+        switch (type) {
+            case STUDENT -> students.invalidate(id);
+            // в студентах лежит копия факультета, поэтому сбрасываем их целиком
+            case FACULTY -> students.invalidateAll();
+            case AVATAR -> thumbnailCache.invalidateStudent(id);
+            default -> logger.warn("Unknown cache entity type '{}'", type);
+        }
+        logger.debug("Invalidated cached {} {}", type, id);
+    }
+
+    private class Evictions implements TransactionSynchronization {
+        private final Map<String, Set<Long>> ids = new LinkedHashMap<>();
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            sendNotifications(ids);
+        }
+
+        @Override
+        public void afterCommit() {
+            ids.forEach((type, typeIds) -> typeIds.forEach(id -> invalidateLocal(type, id)));
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(EntityCache.this);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package ru.hogwarts.school.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+@Service
+public class ExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportService.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final JdbcTemplate cursorTemplate;
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    public enum Format {
+        NDJSON, CSV;
+
+        public static Format parse(String value) {
+            try {
+                return Format.valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Поддерживаются форматы ndjson и csv");
+            }
+        }
+    }
+
+    // отдельный JdbcTemplate с fetch size: Postgres отдаёт строки порциями через курсор, а не всю выборку сразу
+    public ExportService(DataSource dataSource, @Value("${export.fetch-size:1000}") int fetchSize) {
+        this.cursorTemplate = new JdbcTemplate(dataSource);
+        this.cursorTemplate.setFetchSize(fetchSize);
+    }
+
+    @Transactional(readOnly = true)
+    public long exportStudents(OutputStream out, Format format, Long facultyId, Integer minAge, Integer maxAge)
+            throws IOException {
+        logger.debug("Was invoked method for exportStudents");
+        StringBuilder sql = new StringBuilder("SELECT id, name, age, faculty_id FROM student");
+        List<Object> args = new ArrayList<>();
+        List<String> conditions = new ArrayList<>();
+        if (facultyId != null) {
+            conditions.add("faculty_id = ?");
+            args.add(facultyId);
+        }
+        if (minAge != null) {
+            conditions.add("age >= ?");
+            args.add(minAge);
+        }
+        if (maxAge != null) {
+            conditions.add("age <= ?");
+            args.add(maxAge);
+        }
+        if (!conditions.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+        sql.append(" ORDER BY id");
+        return export(out, format, sql.toString(), args.toArray(), new String[]{"id", "name", "age", "faculty_id"});
+    }
+
+    @Transactional(readOnly = true)
+    public long exportFaculties(OutputStream out, Format format) throws IOException {
+        logger.debug("Was invoked method for exportFaculties");
+        return export(out, format, "SELECT id, name, color FROM faculty ORDER BY id", new Object[0],
+                new String[]{"id", "name", "color"});
+    }
+
+    private long export(OutputStream out, Format format, String sql, Object[] args, String[] columns)
+            throws IOException {
+        RowWriter writer = format == Format.CSV
+                ? new CsvWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE), columns)
+                : new NdjsonWriter(jsonFactory.createGenerator(new BufferedOutputStream(out, BUFFER_SIZE)), columns);
+        long[] rows = new long[1];
+        try {
+            cursorTemplate.query(sql, (RowCallbackHandler) rs -> {
+                try {
+                    writer.write(rs);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                rows[0]++;
+            }, args);
+        } catch (UncheckedIOException e) {
+            // клиент оборвал соединение - дальше читать курсор незачем
+            throw e.getCause();
+        }
+        writer.finish();
+        logger.debug("Exported {} rows as {}", rows[0], format);
+        return rows[0];
+    }
+
+    private interface RowWriter {
+        void write(ResultSet rs) throws SQLException, IOException;
+
+        void finish() throws IOException;
+    }
+
+    private static class NdjsonWriter implements RowWriter {
+        private final JsonGenerator generator;
+        private final String[] columns;
+
+        NdjsonWriter(JsonGenerator generator, String[] columns) {
+            this.generator = generator;
+            this.columns = columns;
+            generator.setRootValueSeparator(null);
+        }
+
+        @Override
+        public void write(ResultSet rs) throws SQLException, IOException {
+            generator.writeStartObject();
+            for (int i = 0; i < columns.length; i++) {
+                Object value = rs.getObject(i + 1);
+                generator.writeFieldName(columns[i]);
+                if (value == null) {
+                    generator.writeNull();
+                } else if (value instanceof Number number) {
+                    generator.writeNumber(number.longValue());
+                } else {
+                    generator.writeString(value.toString());
+                }
+            }
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            generator.flush();
+        }
+    }
+
+    private static class CsvWriter implements RowWriter {
+        private final Writer writer;
+        private final String[] columns;
+
+        CsvWriter(Writer writer, String[] columns) throws IOException {
+            this.writer = writer;
+            this.columns = columns;
+            writer.write(String.join(",", columns));
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void write(ResultSet rs) throws SQLException, IOException {
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                String value = rs.getString(i + 1);
+                if (value != null) {
+                    writeEscaped(value);
+                }
+            }
+            writer.write("\r\n");
+        }
+
+        private void writeEscaped(String value) throws IOException {
+            boolean quote = value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                    || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+            if (!quote) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.flush();
+        }
+    }
+}
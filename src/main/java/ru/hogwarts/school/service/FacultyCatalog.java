@@ -0,0 +1,158 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.repositories.FacultyRepository;
+
+import java.util.*;
+
+// факультетов единицы, поэтому все чтения идут из неизменяемого снимка в памяти.
+// запись собирает новый снимок и подменяет ссылку целиком, читатели блокировок не берут
+@Component
+public class FacultyCatalog {
+
+    private static final Logger logger = LoggerFactory.getLogger(FacultyCatalog.class);
+
+    private final FacultyRepository facultyRepository;
+    private volatile Snapshot snapshot;
+
+    public FacultyCatalog(FacultyRepository facultyRepository) {
+        this.facultyRepository = facultyRepository;
+    }
+
+    private record Searchable(Faculty faculty, String name, String color) {
+    }
+
+    // byId упорядочен по id; в снимке копии факультетов, оторванные от сессии Hibernate
+    // eTag меняется при любом изменении состава или версии факультетов
+    private record Snapshot(Map<Long, Faculty> byId, Map<String, List<Faculty>> byColor,
+                            List<Searchable> searchable, String longestName, String eTag) {
+
+        static Snapshot of(Collection<Faculty> faculties) {
+            Map<Long, Faculty> byId = new TreeMap<>();
+            for (Faculty faculty : faculties) {
+                byId.put(faculty.getId(), faculty);
+            }
+            Map<String, List<Faculty>> byColor = new HashMap<>();
+            List<Searchable> searchable = new ArrayList<>(byId.size());
+            String longestName = null;
+            long hash = 1;
+            for (Faculty faculty : byId.values()) {
+                hash = 31 * (31 * hash + faculty.getId()) + faculty.getVersion();
+                if (faculty.getColor() != null) {
+                    byColor.computeIfAbsent(faculty.getColor(), color -> new ArrayList<>()).add(faculty);
+                }
+                searchable.add(new Searchable(faculty, lower(faculty.getName()), lower(faculty.getColor())));
+                String name = faculty.getName();
+                if (name != null && !name.isEmpty() && (longestName == null || name.length() > longestName.length())) {
+                    longestName = name;
+                }
+            }
+            byColor.replaceAll((color, list) -> List.copyOf(list));
+            return new Snapshot(Collections.unmodifiableMap(new LinkedHashMap<>(byId)), Map.copyOf(byColor),
+                    List.copyOf(searchable), longestName, byId.size() + "-" + Long.toHexString(hash));
+        }
+    }
+
+    public Faculty find(long id) {
+        return current().byId().get(id);
+    }
+
+    public boolean contains(long id) {
+        return current().byId().containsKey(id);
+    }
+
+    public Collection<Faculty> getAll() {
+        return current().byId().values();
+    }
+
+    public List<Faculty> findByColor(String color) {
+        return current().byColor().getOrDefault(color, List.of());
+    }
+
+    // подстрока без учёта регистра в названии или цвете, как делал прежний запрос LIKE
+    public List<Faculty> search(String query) {
+        String needle = lower(query);
+        List<Faculty> found = new ArrayList<>();
+        for (Searchable item : current().searchable()) {
+            if (item.name().contains(needle) || item.color().contains(needle)) {
+                found.add(item.faculty());
+            }
+        }
+        return found;
+    }
+
+    public String getLongestName() {
+        return current().longestName();
+    }
+
+    public String getETag() {
+        return current().eTag();
+    }
+
+    public synchronized void put(Faculty faculty) {
+        Map<Long, Faculty> faculties = new HashMap<>(current().byId());
+        faculties.put(faculty.getId(), copyOf(faculty));
+        snapshot = Snapshot.of(faculties.values());
+    }
+
+    public synchronized void remove(long id) {
+        Map<Long, Faculty> faculties = new HashMap<>(current().byId());
+        if (faculties.remove(id) != null) {
+            snapshot = Snapshot.of(faculties.values());
+        }
+    }
+
+    // изменение пришло от другого экземпляра: перечитываем один факультет
+    public synchronized void reload(long id) {
+        Optional<Faculty> faculty = facultyRepository.findById(id);
+        if (faculty.isPresent()) {
+            put(faculty.get());
+        } else {
+            remove(id);
+        }
+    }
+
+    // загрузка идёт под той же блокировкой, что и запись, иначе старая выборка затрёт свежий put
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${school.faculty-catalog.refresh-interval-ms:300000}",
+            fixedDelayString = "${school.faculty-catalog.refresh-interval-ms:300000}")
+    public synchronized void refresh() {
+        List<Faculty> faculties = facultyRepository.findAll().stream()
+                .map(FacultyCatalog::copyOf)
+                .toList();
+        snapshot = Snapshot.of(faculties);
+        logger.info("Loaded faculty catalog: {} faculties", faculties.size());
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    refresh();
+                }
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+
+    private static Faculty copyOf(Faculty faculty) {
+        Faculty copy = new Faculty();
+        copy.setId(faculty.getId());
+        copy.setName(faculty.getName());
+        copy.setColor(faculty.getColor());
+        copy.setVersion(faculty.getVersion());
+        return copy;
+    }
+
+    private static String lower(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+}
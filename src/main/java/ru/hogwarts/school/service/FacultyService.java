@@ -3,30 +3,54 @@ package ru.hogwarts.school.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ru.hogwarts.school.dto.RosterPage;
 import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
 import ru.hogwarts.school.repositories.FacultyRepository;
+import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.utility.TransactionCallbacks;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.List;
 
 @Service
 public class FacultyService {
 
     private static final Logger logger = LoggerFactory.getLogger(FacultyService.class);
 
+    private static final int MAX_PAGE_SIZE = 500;
+
     private final FacultyRepository facultyRepository;
+    private final StudentRepository studentRepository;
+    private final FacultyCatalog facultyCatalog;
+    private final EntityCache entityCache;
+    private final SearchIndex searchIndex;
+    private final ChangeFeed changeFeed;
 
     @Autowired
-    public FacultyService(FacultyRepository facultyRepository) {
+    public FacultyService(FacultyRepository facultyRepository, StudentRepository studentRepository,
+                          FacultyCatalog facultyCatalog, EntityCache entityCache, SearchIndex searchIndex,
+                          ChangeFeed changeFeed) {
         this.facultyRepository = facultyRepository;
+        this.studentRepository = studentRepository;
+        this.facultyCatalog = facultyCatalog;
+        this.entityCache = entityCache;
+        this.searchIndex = searchIndex;
+        this.changeFeed = changeFeed;
     }
 
+    @Transactional
     public Faculty createFaculty(Faculty faculty) {
-        logger.info("Was invoked method for createFaculty");
+        logger.debug("Was invoked method for createFaculty");
         try {
             Faculty savedFaculty = facultyRepository.save(faculty);
+            changeFeed.record(ChangeFeed.FACULTY, savedFaculty.getId(), ChangeFeed.Operation.UPSERT,
+                    savedFaculty.getVersion());
+            publishAfterCommit(savedFaculty);
             logger.debug("Saved faculty: {}", savedFaculty);
             return savedFaculty;
         } catch (Exception e) {
@@ -35,10 +59,27 @@ public class FacultyService {
         }
     }
 
+    public RosterPage getStudentsOfFaculty(long id, Long after, int limit, boolean withTotal) {
+        logger.debug("Was invoked method for getStudentsOfFaculty with id={}", id);
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Размер страницы должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+        List<Student> students = studentRepository.findRosterPage(id, after != null ? after : 0L, PageRequest.of(0, limit));
+        // существование факультета проверяем, только если страница пустая
+        if (students.isEmpty() && !facultyCatalog.contains(id)) {
+            logger.warn("No faculty found with id={}", id);
+            return null;
+        }
+        Long nextCursor = students.size() == limit ? students.get(students.size() - 1).getId() : null;
+        Long total = withTotal ? studentRepository.countByFacultyId(id) : null;
+        logger.debug("Found {} students of faculty id={} after id={}", students.size(), id, after);
+        return new RosterPage(students, nextCursor, total);
+    }
+
     public Faculty findFaculty(long id) {
-        logger.info("Was invoked method for findFaculty with id={}", id);
+        logger.debug("Was invoked method for findFaculty with id={}", id);
         try {
-            Faculty faculty = facultyRepository.findById(id).orElse(null);
+            Faculty faculty = facultyCatalog.find(id);
             if (faculty == null) {
                 logger.warn("No faculty found with id={}", id);
             } else {
@@ -51,10 +92,32 @@ public class FacultyService {
         }
     }
 
+    public String getFacultiesETag() {
+        return facultyCatalog.getETag();
+    }
+
+    public String getFacultyETag(long id) {
+        Faculty faculty = facultyCatalog.find(id);
+        return faculty != null ? String.valueOf(faculty.getVersion()) : null;
+    }
+
+    @Transactional
     public Faculty editFaculty(Faculty faculty) {
-        logger.info("Was invoked method for editFaculty");
+        logger.debug("Was invoked method for editFaculty");
         try {
-            Faculty updated = facultyRepository.save(faculty);
+            // без If-Match запись безусловная: строку читаем из базы под блокировкой, а не версию из каталога,
+            // который отстаёт от чужих записей до их коммита, иначе проверка версии при flush даёт 500
+            Faculty existing = facultyRepository.findForUpdate(faculty.getId()).orElse(null);
+            if (existing == null) {
+                logger.warn("No faculty found with id={}", faculty.getId());
+                return null;
+            }
+            existing.setName(faculty.getName());
+            existing.setColor(faculty.getColor());
+            Faculty updated = facultyRepository.saveAndFlush(existing);
+            changeFeed.record(ChangeFeed.FACULTY, updated.getId(), ChangeFeed.Operation.UPSERT, updated.getVersion());
+            entityCache.evictFaculty(updated.getId());
+            publishAfterCommit(updated);
             logger.debug("Updated faculty: {}", updated);
             return updated;
         } catch (Exception e) {
@@ -63,11 +126,42 @@ public class FacultyService {
         }
     }
 
+    // условное редактирование по If-Match: версия сверяется в самом UPDATE
+    @Transactional
+    public Faculty editFaculty(Faculty faculty, long expectedVersion) {
+        logger.debug("Was invoked method for editFaculty with version={}", expectedVersion);
+        long id = faculty.getId();
+        if (facultyRepository.updateIfVersion(id, expectedVersion, faculty.getName(), faculty.getColor()) == 0) {
+            if (!facultyRepository.existsById(id)) {
+                logger.warn("No faculty found with id={}", id);
+                return null;
+            }
+            throw new VersionConflictException("Факультет с id " + id + " уже изменён, обновите данные и повторите");
+        }
+        Faculty updated = new Faculty();
+        updated.setId(id);
+        updated.setName(faculty.getName());
+        updated.setColor(faculty.getColor());
+        updated.setVersion(expectedVersion + 1);
+        changeFeed.record(ChangeFeed.FACULTY, id, ChangeFeed.Operation.UPSERT, updated.getVersion());
+        entityCache.evictFaculty(id);
+        publishAfterCommit(updated);
+        logger.debug("Updated faculty: {}", updated);
+        return updated;
+    }
+
+    @Transactional
     public void deleteFaculty(long id) {
-        logger.info("Was invoked method for deleteFaculty with id={}", id);
+        logger.debug("Was invoked method for deleteFaculty with id={}", id);
         try {
             if (facultyRepository.existsById(id)) {
                 facultyRepository.deleteById(id);
+                changeFeed.record(ChangeFeed.FACULTY, id, ChangeFeed.Operation.DELETE, null);
+                entityCache.evictFaculty(id);
+                TransactionCallbacks.afterCommit(() -> {
+                    facultyCatalog.remove(id);
+                    searchIndex.removeFaculty(id);
+                });
                 logger.info("Deleted faculty with id={}", id);
             } else {
                 logger.warn("Attempted to delete non-existent faculty with id={}", id);
@@ -79,9 +173,9 @@ public class FacultyService {
     }
 
     public Collection<Faculty> getAllFaculties() {
-        logger.info("Was invoked method for getAllFaculties");
+        logger.debug("Was invoked method for getAllFaculties");
         try {
-            Collection<Faculty> faculties = facultyRepository.findAll();
+            Collection<Faculty> faculties = facultyCatalog.getAll();
             logger.debug("Fetched {} faculties", faculties.size());
             return faculties;
         } catch (Exception e) {
@@ -91,13 +185,13 @@ public class FacultyService {
     }
 
     public Collection<Faculty> getFacultiesByColor(String color) {
-        logger.info("Was invoked method for getFacultiesByColor with color={}", color);
+        logger.debug("Was invoked method for getFacultiesByColor with color={}", color);
         if (color == null || color.trim().isEmpty()) {
             logger.warn("Provided color is null or empty");
             return Collections.emptyList();
         }
         try {
-            Collection<Faculty> faculties = facultyRepository.findByColor(color);
+            Collection<Faculty> faculties = facultyCatalog.findByColor(color);
             logger.debug("Found {} faculties with color={}", faculties.size(), color);
             return faculties;
         } catch (Exception e) {
@@ -107,9 +201,9 @@ public class FacultyService {
     }
 
     public Collection<Faculty> searchFacultiesByNameOrColor(String query) {
-        logger.info("Was invoked method for searchFacultiesByNameOrColor with query={}", query);
+        logger.debug("Was invoked method for searchFacultiesByNameOrColor with query={}", query);
         try {
-            Collection<Faculty> faculties = facultyRepository.findByNameOrColorIgnoreCase(query);
+            Collection<Faculty> faculties = facultyCatalog.search(query);
             logger.debug("Found {} faculties matching query={}", faculties.size(), query);
             return faculties;
         } catch (Exception e) {
@@ -118,13 +212,17 @@ public class FacultyService {
         }
     }
 
+    private void publishAfterCommit(Faculty faculty) {
+        long id = faculty.getId();
+        String name = faculty.getName();
+        String color = faculty.getColor();
+        TransactionCallbacks.afterCommit(() -> {
+            facultyCatalog.put(faculty);
+            searchIndex.putFaculty(id, name, color);
+        });
+    }
+
     public String getLongestFacultyName() {
-        Collection<Faculty> faculties = getAllFaculties();
-        return faculties.stream()
-                .parallel()
-                .map(Faculty::getName)
-                .filter(name -> name != null && !name.isEmpty())
-                .max(Comparator.comparingInt(String::length))
-                .orElse(null);
+        return facultyCatalog.getLongestName();
     }
 }
\ No newline at end of file
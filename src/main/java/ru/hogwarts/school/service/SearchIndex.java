@@ -0,0 +1,252 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+@Component
+public class SearchIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndex.class);
+
+    // как у pg_trgm: ниже этого сходства совпадение считаем случайным
+    private static final double MIN_SIMILARITY = 0.3;
+
+    // как часто сверяться с бюджетом времени при обходе списков документов
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+    private static final int MAX_LIMIT = 100;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long latencyBudgetNanos;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Index index = new Index();
+    private List<Change> changedDuringRebuild;
+
+    public SearchIndex(JdbcTemplate jdbcTemplate,
+                       @Value("${search.latency-budget-ms:50}") long latencyBudgetMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.latencyBudgetNanos = latencyBudgetMs * 1_000_000;
+    }
+
+    public enum Type {
+        STUDENT, FACULTY
+    }
+
+    public record Hit(Type type, long id, String text, double score) {
+    }
+
+    // partial - бюджет времени кончился и часть совпадений не просмотрена
+    public record Result(List<Hit> items, boolean partial, long tookMicros) {
+    }
+
+    private record Key(Type type, long id) {
+    }
+
+    // text == null - документ удалён
+    private record Change(Key key, String text) {
+    }
+
+    private record Document(Key key, String text, String normalized, Set<String> trigrams) {
+    }
+
+    public void putStudent(long id, String name) {
+        apply(new Change(new Key(Type.STUDENT, id), name));
+    }
+
+    public void removeStudent(long id) {
+        apply(new Change(new Key(Type.STUDENT, id), null));
+    }
+
+    public void putFaculty(long id, String name, String color) {
+        apply(new Change(new Key(Type.FACULTY, id), facultyText(name, color)));
+    }
+
+    public void removeFaculty(long id) {
+        apply(new Change(new Key(Type.FACULTY, id), null));
+    }
+
+    public Result search(String query, Type type, int limit) {
+        if (query == null || query.isBlank()) {
+            throw new IllegalArgumentException("Строка поиска не должна быть пустой");
+        }
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("Количество результатов должно быть от 1 до " + MAX_LIMIT);
+        }
+        long started = System.nanoTime();
+        long deadline = started + latencyBudgetNanos;
+        String normalized = normalize(query);
+        Set<String> queryTrigrams = trigrams(normalized);
+        if (queryTrigrams.isEmpty()) {
+            return new Result(List.of(), false, 0);
+        }
+
+        List<Hit> hits = new ArrayList<>();
+        boolean partial = false;
+        lock.readLock().lock();
+        try {
+            Map<Key, Integer> shared = new HashMap<>();
+            int visited = 0;
+            outer:
+            for (String trigram : queryTrigrams) {
+                for (Key key : index.postings.getOrDefault(trigram, Set.of())) {
+                    if (++visited % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() > deadline) {
+                        partial = true;
+                        break outer;
+                    }
+                    if (type == null || key.type() == type) {
+                        shared.merge(key, 1, Integer::sum);
+                    }
+                }
+            }
+            for (Map.Entry<Key, Integer> entry : shared.entrySet()) {
+                Document document = index.documents.get(entry.getKey());
+                int common = entry.getValue();
+                double similarity = (double) common / (queryTrigrams.size() + document.trigrams().size() - common);
+                // точное вхождение подстроки всегда выше любых нечётких совпадений
+                boolean contains = document.normalized().contains(normalized);
+                if (contains || similarity >= MIN_SIMILARITY) {
+                    hits.add(new Hit(document.key().type(), document.key().id(), document.text(),
+                            contains ? 1 + similarity : similarity));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        hits.sort(Comparator.comparingDouble(Hit::score).reversed().thenComparing(Hit::id));
+        List<Hit> items = hits.size() > limit ? List.copyOf(hits.subList(0, limit)) : hits;
+        long tookMicros = (System.nanoTime() - started) / 1000;
+        logger.debug("Search '{}' matched {} documents in {} us{}", query, hits.size(), tookMicros,
+                partial ? " (partial)" : "");
+        return new Result(items, partial, tookMicros);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${search.rebuild-interval-ms:600000}",
+            fixedDelayString = "${search.rebuild-interval-ms:600000}")
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            changedDuringRebuild = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Index fresh = new Index();
+        boolean loaded = false;
+        try {
+            jdbcTemplate.query("SELECT id, name FROM student", (RowCallbackHandler) rs ->
+                    fresh.put(new Key(Type.STUDENT, rs.getLong("id")), rs.getString("name")));
+            jdbcTemplate.query("SELECT id, name, color FROM faculty", (RowCallbackHandler) rs ->
+                    fresh.put(new Key(Type.FACULTY, rs.getLong("id")),
+                            facultyText(rs.getString("name"), rs.getString("color"))));
+            loaded = true;
+        } finally {
+            lock.writeLock().lock();
+            try {
+                if (loaded) {
+                    // записи, пришедшие пока читали таблицы, могли не попасть в выборку
+                    for (Change change : changedDuringRebuild) {
+                        fresh.apply(change);
+                    }
+                    index = fresh;
+                }
+                changedDuringRebuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        logger.info("Rebuilt search index: {} documents, {} trigrams", fresh.documents.size(), fresh.postings.size());
+    }
+
+    private void apply(Change change) {
+        lock.writeLock().lock();
+        try {
+            index.apply(change);
+            if (changedDuringRebuild != null) {
+                changedDuringRebuild.add(change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static String facultyText(String name, String color) {
+        if (color == null || color.isBlank()) {
+            return name;
+        }
+        return name != null ? name + " " + color : color;
+    }
+
+    static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT).replace('ё', 'е').trim();
+    }
+
+    // каждое слово дополняется пробелами, как в pg_trgm, чтобы начало слова весило больше
+    static Set<String> trigrams(String normalized) {
+        Set<String> trigrams = new HashSet<>();
+        for (String word : normalized.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            String padded = "  " + word + " ";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                trigrams.add(padded.substring(i, i + 3));
+            }
+        }
+        return trigrams;
+    }
+
+    private static class Index {
+        private final Map<Key, Document> documents = new HashMap<>();
+        private final Map<String, Set<Key>> postings = new HashMap<>();
+
+        void apply(Change change) {
+            if (change.text() == null) {
+                remove(change.key());
+            } else {
+                put(change.key(), change.text());
+            }
+        }
+
+        void put(Key key, String text) {
+            remove(key);
+            if (text == null) {
+                return;
+            }
+            String normalized = normalize(text);
+            Document document = new Document(key, text, normalized, trigrams(normalized));
+            documents.put(key, document);
+            for (String trigram : document.trigrams()) {
+                postings.computeIfAbsent(trigram, t -> new HashSet<>()).add(key);
+            }
+        }
+
+        void remove(Key key) {
+            Document previous = documents.remove(key);
+            if (previous == null) {
+                return;
+            }
+            for (String trigram : previous.trigrams()) {
+                Set<Key> keys = postings.get(trigram);
+                if (keys != null) {
+                    keys.remove(key);
+                    if (keys.isEmpty()) {
+                        postings.remove(trigram);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+@Component
+public class StudentAgeIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(StudentAgeIndex.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Queue<Change> pending = new ConcurrentLinkedQueue<>();
+    private volatile AgeSnapshot snapshot = AgeSnapshot.empty();
+
+    public StudentAgeIndex(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // entry == null - студент удалён
+    private record Change(long id, StudentStatistics.Entry entry) {
+    }
+
+    public AgeSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public void onChanged(long id, StudentStatistics.Entry entry) {
+        pending.add(new Change(id, entry));
+    }
+
+    public void onDeleted(long id) {
+        pending.add(new Change(id, null));
+    }
+
+    // изменения копятся в очереди и вливаются в новый снимок пачкой, чтения идут без блокировок
+    @Scheduled(fixedDelayString = "${students.age-index.merge-interval-ms:1000}")
+    public synchronized void mergePending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Set<Long> removed = new HashSet<>();
+        Map<Long, AgeSnapshot.Row> added = new HashMap<>();
+        Change change;
+        while ((change = pending.poll()) != null) {
+            StudentStatistics.Entry entry = change.entry();
+            if (entry == null || entry.age() == null) {
+                removed.add(change.id());
+                added.remove(change.id());
+            } else {
+                removed.remove(change.id());
+                added.put(change.id(), new AgeSnapshot.Row(change.id(), entry.age(),
+                        entry.facultyId() != null ? entry.facultyId() : AgeSnapshot.NO_FACULTY));
+            }
+        }
+        snapshot = snapshot.merge(removed, added);
+        logger.debug("Merged {} student changes into age index of {} students", removed.size() + added.size(),
+                snapshot.size());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${students.age-index.rebuild-interval-ms:600000}",
+            fixedDelayString = "${students.age-index.rebuild-interval-ms:600000}")
+    public synchronized void rebuild() {
+        Rows rows = new Rows();
+        jdbcTemplate.query("SELECT id, age, faculty_id FROM student WHERE age IS NOT NULL", rows);
+        snapshot = AgeSnapshot.of(rows.ids, rows.ages, rows.facultyIds, rows.size);
+        // изменения, попавшие в очередь до перечитывания, применяем ещё раз - они идемпотентны
+        mergePending();
+        logger.info("Rebuilt student age index: {} students", snapshot.size());
+    }
+
+    private static class Rows implements RowCallbackHandler {
+        private long[] ids = new long[1024];
+        private int[] ages = new int[1024];
+        private long[] facultyIds = new long[1024];
+        private int size;
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                ages = Arrays.copyOf(ages, size * 2);
+                facultyIds = Arrays.copyOf(facultyIds, size * 2);
+            }
+            ids[size] = rs.getLong(1);
+            ages[size] = rs.getInt(2);
+            facultyIds[size] = rs.getLong(3);
+            size++;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package ru.hogwarts.school.service;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.utility.TransactionCallbacks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.function.Function;
+
+@Service
+public class StudentBulkService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StudentBulkService.class);
+
+    private final StudentRepository studentRepository;
+    private final StudentStatistics studentStatistics;
+    private final StudentAgeIndex studentAgeIndex;
+    private final EntityCache entityCache;
+    private final SearchIndex searchIndex;
+    private final ChangeFeed changeFeed;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final int chunkSize;
+
+    public StudentBulkService(StudentRepository studentRepository,
+                              StudentStatistics studentStatistics,
+                              StudentAgeIndex studentAgeIndex,
+                              EntityCache entityCache,
+                              SearchIndex searchIndex,
+                              ChangeFeed changeFeed,
+                              EntityManager entityManager,
+                              TransactionTemplate transactionTemplate,
+                              ObjectMapper objectMapper,
+                              @Value("${students.bulk.chunk-size:1000}") int chunkSize) {
+        this.studentRepository = studentRepository;
+        this.studentStatistics = studentStatistics;
+        this.studentAgeIndex = studentAgeIndex;
+        this.entityCache = entityCache;
+        this.searchIndex = searchIndex;
+        this.changeFeed = changeFeed;
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+    }
+
+    public record ChunkReport(int chunk, int size, int written, int failed, long millis, double rowsPerSecond,
+                              List<String> errors) {
+    }
+
+    public record BulkReport(int total, int written, int failed, long millis, List<ChunkReport> chunks) {
+    }
+
+    private record ChunkResult(int written, List<String> errors) {
+    }
+
+    // previous == null - студент создан
+    private record Change(long id, String name, StudentStatistics.Entry previous, StudentStatistics.Entry current) {
+    }
+
+    // принимает и JSON-массив, и NDJSON: MappingIterator разворачивает массив верхнего уровня сам
+    public BulkReport createStudents(InputStream input) throws IOException {
+        logger.debug("Was invoked method for createStudents");
+        return process(input, this::insertChunk);
+    }
+
+    public BulkReport updateStudents(InputStream input) throws IOException {
+        logger.debug("Was invoked method for updateStudents");
+        return process(input, this::updateChunk);
+    }
+
+    private BulkReport process(InputStream input, Function<List<Student>, ChunkResult> writer) throws IOException {
+        long started = System.currentTimeMillis();
+        List<ChunkReport> chunks = new ArrayList<>();
+        List<Student> chunk = new ArrayList<>(chunkSize);
+        try (MappingIterator<Student> students = objectMapper.readerFor(Student.class).readValues(input)) {
+            while (students.hasNextValue()) {
+                chunk.add(students.nextValue());
+                if (chunk.size() == chunkSize) {
+                    chunks.add(writeChunk(chunks.size() + 1, chunk, writer));
+                    chunk.clear();
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(writeChunk(chunks.size() + 1, chunk, writer));
+        }
+
+        int total = 0;
+        int written = 0;
+        int failed = 0;
+        for (ChunkReport report : chunks) {
+            total += report.size();
+            written += report.written();
+            failed += report.failed();
+        }
+        long millis = System.currentTimeMillis() - started;
+        logger.info("Bulk wrote {} of {} students in {} chunks, {} ms", written, total, chunks.size(), millis);
+        return new BulkReport(total, written, failed, millis, chunks);
+    }
+
+    private ChunkReport writeChunk(int index, List<Student> chunk, Function<List<Student>, ChunkResult> writer) {
+        long started = System.nanoTime();
+        ChunkResult result;
+        try {
+            result = transactionTemplate.execute(status -> writer.apply(chunk));
+        } catch (RuntimeException e) {
+            logger.error("Bulk chunk {} of {} students failed", index, chunk.size(), e);
+            result = new ChunkResult(0, List.of("Ошибка записи в базу данных: " + e.getMessage()));
+        } finally {
+            entityManager.clear();
+        }
+        long nanos = System.nanoTime() - started;
+        double rowsPerSecond = nanos > 0 ? result.written() * 1_000_000_000.0 / nanos : 0;
+        logger.debug("Bulk chunk {}: {} rows in {} ms", index, result.written(), nanos / 1_000_000);
+        return new ChunkReport(index, chunk.size(), result.written(), chunk.size() - result.written(),
+                nanos / 1_000_000, rowsPerSecond, result.errors());
+    }
+
+    private ChunkResult insertChunk(List<Student> chunk) {
+        List<Change> created = new ArrayList<>(chunk.size());
+        for (Student student : chunk) {
+            // id выдаёт последовательность блоками, поэтому вставки уходят пачками
+            student.setId(0);
+            student.setFaculty(facultyReference(student.getFaculty()));
+            entityManager.persist(student);
+            created.add(new Change(student.getId(), student.getName(), null, StudentStatistics.Entry.of(student)));
+        }
+        entityManager.flush();
+        changeFeed.recordAll(feedChanges(chunk));
+        TransactionCallbacks.afterCommit(() -> created.forEach(this::publish));
+        return new ChunkResult(chunk.size(), List.of());
+    }
+
+    private ChunkResult updateChunk(List<Student> chunk) {
+        Map<Long, Student> incoming = new LinkedHashMap<>();
+        for (Student student : chunk) {
+            incoming.put(student.getId(), student);
+        }
+        List<String> errors = new ArrayList<>();
+        if (incoming.size() < chunk.size()) {
+            errors.add("Повторяющиеся id в одной пачке: применена последняя запись");
+        }
+
+        // одна выборка на пачку, дальше изменения уходят пачкой UPDATE при flush
+        Map<Long, Student> existing = new HashMap<>();
+        for (Student student : studentRepository.findAllById(incoming.keySet())) {
+            existing.put(student.getId(), student);
+        }
+        List<Change> changes = new ArrayList<>(incoming.size());
+        List<Student> updated = new ArrayList<>(incoming.size());
+        for (Student update : incoming.values()) {
+            Student current = existing.get(update.getId());
+            if (current == null) {
+                errors.add("Студент с id " + update.getId() + " не найден");
+                continue;
+            }
+            // строка заменяет студента целиком, как editStudent: не переданное поле становится пустым
+            StudentStatistics.Entry previous = StudentStatistics.Entry.of(current);
+            current.setName(update.getName());
+            current.setAge(update.getAge());
+            current.setFaculty(facultyReference(update.getFaculty()));
+            changes.add(new Change(current.getId(), current.getName(), previous, StudentStatistics.Entry.of(current)));
+            updated.add(current);
+            entityCache.evictStudent(current.getId());
+        }
+        entityManager.flush();
+        changeFeed.recordAll(feedChanges(updated));
+        TransactionCallbacks.afterCommit(() -> changes.forEach(this::publish));
+        return new ChunkResult(changes.size(), errors);
+    }
+
+    // версии читаются после flush, когда Hibernate их уже увеличил
+    private static List<ChangeFeed.Change> feedChanges(List<Student> students) {
+        List<ChangeFeed.Change> changes = new ArrayList<>(students.size());
+        for (Student student : students) {
+            changes.add(new ChangeFeed.Change(ChangeFeed.STUDENT, student.getId(), ChangeFeed.Operation.UPSERT,
+                    student.getVersion()));
+        }
+        return changes;
+    }
+
+    private void publish(Change change) {
+        if (change.previous() == null) {
+            studentStatistics.onCreated(change.current());
+        } else {
+            studentStatistics.onUpdated(change.previous(), change.current());
+        }
+        studentAgeIndex.onChanged(change.id(), change.current());
+        searchIndex.putStudent(change.id(), change.name());
+    }
+
+    private Faculty facultyReference(Faculty faculty) {
+        return faculty != null ? entityManager.getReference(Faculty.class, faculty.getId()) : null;
+    }
+}
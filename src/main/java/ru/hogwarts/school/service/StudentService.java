@@ -1,33 +1,82 @@
 package ru.hogwarts.school.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Hibernate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ru.hogwarts.school.dto.AgeSummary;
+import ru.hogwarts.school.dto.CursorPage;
+import ru.hogwarts.school.dto.NamePage;
+import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
 import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.utility.TransactionCallbacks;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class StudentService {
 
     private static final Logger logger = LoggerFactory.getLogger(StudentService.class);
 
+    private static final int MAX_PAGE_SIZE = 500;
+
+    // совпадает с fetch size запроса StudentRepository.streamAll
+    private static final int STREAM_CLEAR_INTERVAL = 500;
+
     private final StudentRepository studentRepository;
+    private final StudentStatistics studentStatistics;
+    private final StudentAgeIndex studentAgeIndex;
+    private final EntityCache entityCache;
+    private final SearchIndex searchIndex;
+    private final FacultyCatalog facultyCatalog;
+    private final ChangeFeed changeFeed;
+    private final EntityManager entityManager;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public StudentService(StudentRepository studentRepository) {
+    public StudentService(StudentRepository studentRepository, StudentStatistics studentStatistics,
+                          StudentAgeIndex studentAgeIndex, EntityCache entityCache, SearchIndex searchIndex,
+                          FacultyCatalog facultyCatalog, ChangeFeed changeFeed, EntityManager entityManager,
+                          ObjectMapper objectMapper) {
         this.studentRepository = studentRepository;
+        this.studentStatistics = studentStatistics;
+        this.studentAgeIndex = studentAgeIndex;
+        this.entityCache = entityCache;
+        this.searchIndex = searchIndex;
+        this.facultyCatalog = facultyCatalog;
+        this.changeFeed = changeFeed;
+        this.entityManager = entityManager;
+        this.objectMapper = objectMapper;
     }
 
+    @Transactional
     public Student createStudent(Student student) {
-        logger.info("Was invoked method for createStudent");
+        logger.debug("Was invoked method for createStudent");
         try {
             Student savedStudent = studentRepository.save(student);
+            changeFeed.record(ChangeFeed.STUDENT, savedStudent.getId(), ChangeFeed.Operation.UPSERT,
+                    savedStudent.getVersion());
+            StudentStatistics.Entry created = StudentStatistics.Entry.of(savedStudent);
+            long id = savedStudent.getId();
+            String name = savedStudent.getName();
+            TransactionCallbacks.afterCommit(() -> {
+                studentStatistics.onCreated(created);
+                studentAgeIndex.onChanged(id, created);
+                searchIndex.putStudent(id, name);
+            });
             logger.debug("Created student: {}", savedStudent);
             return savedStudent;
         } catch (Exception e) {
@@ -37,10 +86,10 @@ public class StudentService {
     }
 
     public Student findStudent(long id) {
-        logger.info("Was invoked method for findStudent with id={}", id);
+        logger.debug("Was invoked method for findStudent with id={}", id);
         try {
-            Student student = studentRepository.findById(id)
-                    .orElseThrow(() -> new IllegalArgumentException("Студент с id " + id + " не найден"));
+            Student student = entityCache.getStudent(id, key -> studentRepository.findById(key)
+                    .orElseThrow(() -> new IllegalArgumentException("Студент с id " + id + " не найден")));
             logger.debug("Found student: {}", student);
             return student;
         } catch (Exception e) {
@@ -49,10 +98,48 @@ public class StudentService {
         }
     }
 
+    // ETag студента: версия строки и версия его факультета, который тоже попадает в ответ.
+    // берётся из кэша или лёгкой выборкой версии, сам студент не загружается; null - студента нет
+    public String getStudentETag(long id) {
+        Student cached = entityCache.peekStudent(id);
+        if (cached != null) {
+            return studentETag(cached.getVersion(), cached.getFaculty() != null ? cached.getFaculty().getId() : null);
+        }
+        List<Object[]> rows = studentRepository.findVersionById(id);
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Object[] row = rows.get(0);
+        return studentETag(((Number) row[0]).longValue(), row[1] != null ? ((Number) row[1]).longValue() : null);
+    }
+
+    public String getStudentETag(Student student) {
+        return studentETag(student.getVersion(), student.getFaculty() != null ? student.getFaculty().getId() : null);
+    }
+
+    private String studentETag(long version, Long facultyId) {
+        Faculty faculty = facultyId != null ? facultyCatalog.find(facultyId) : null;
+        return faculty != null ? version + "-" + faculty.getId() + "." + faculty.getVersion() : String.valueOf(version);
+    }
+
+    @Transactional
     public Student editStudent(Student student) {
-        logger.info("Was invoked method for editStudent");
+        logger.debug("Was invoked method for editStudent");
         try {
-            Student updatedStudent = studentRepository.save(student);
+            Student existing = studentRepository.findById(student.getId()).orElse(null);
+            if (existing == null) {
+                logger.warn("No student found with id={}", student.getId());
+                return null;
+            }
+            StudentStatistics.Entry previous = StudentStatistics.Entry.of(existing);
+            existing.setName(student.getName());
+            existing.setAge(student.getAge());
+            existing.setFaculty(student.getFaculty() != null
+                    ? entityManager.getReference(Faculty.class, student.getFaculty().getId())
+                    : null);
+            Student updatedStudent = studentRepository.saveAndFlush(existing);
+            Hibernate.initialize(updatedStudent.getFaculty());
+            publishEdit(updatedStudent, previous);
             logger.debug("Updated student: {}", updatedStudent);
             return updatedStudent;
         } catch (Exception e) {
@@ -61,11 +148,65 @@ public class StudentService {
         }
     }
 
+    // условное редактирование по If-Match: сверка версии и запись идут одной командой, без чтения перед ней
+    @Transactional
+    public Student editStudent(Student student, long expectedVersion) {
+        logger.debug("Was invoked method for editStudent with version={}", expectedVersion);
+        long id = student.getId();
+        Long facultyId = student.getFaculty() != null ? student.getFaculty().getId() : null;
+        List<Object[]> rows = studentRepository.updateIfVersion(id, expectedVersion, student.getName(),
+                student.getAge(), facultyId);
+        if (rows.isEmpty()) {
+            if (!studentRepository.existsById(id)) {
+                logger.warn("No student found with id={}", id);
+                return null;
+            }
+            throw new VersionConflictException("Студент с id " + id + " уже изменён, обновите данные и повторите");
+        }
+        Object[] old = rows.get(0);
+        StudentStatistics.Entry previous = new StudentStatistics.Entry(
+                old[0] != null ? ((Number) old[0]).intValue() : null,
+                old[1] != null ? ((Number) old[1]).longValue() : null);
+
+        Student updatedStudent = new Student();
+        updatedStudent.setId(id);
+        updatedStudent.setName(student.getName());
+        updatedStudent.setAge(student.getAge());
+        updatedStudent.setVersion(expectedVersion + 1);
+        updatedStudent.setFaculty(facultyId != null ? facultyCatalog.find(facultyId) : null);
+        publishEdit(updatedStudent, previous);
+        logger.debug("Updated student: {}", updatedStudent);
+        return updatedStudent;
+    }
+
+    private void publishEdit(Student updatedStudent, StudentStatistics.Entry previous) {
+        StudentStatistics.Entry current = StudentStatistics.Entry.of(updatedStudent);
+        long id = updatedStudent.getId();
+        String name = updatedStudent.getName();
+        changeFeed.record(ChangeFeed.STUDENT, id, ChangeFeed.Operation.UPSERT, updatedStudent.getVersion());
+        TransactionCallbacks.afterCommit(() -> {
+            studentStatistics.onUpdated(previous, current);
+            studentAgeIndex.onChanged(id, current);
+            searchIndex.putStudent(id, name);
+        });
+        entityCache.evictStudent(id);
+    }
+
+    @Transactional
     public void deleteStudent(long id) {
-        logger.info("Was invoked method for deleteStudent with id={}", id);
+        logger.debug("Was invoked method for deleteStudent with id={}", id);
         try {
-            if (studentRepository.existsById(id)) {
+            Student existing = studentRepository.findById(id).orElse(null);
+            if (existing != null) {
+                StudentStatistics.Entry deleted = StudentStatistics.Entry.of(existing);
                 studentRepository.deleteById(id);
+                changeFeed.record(ChangeFeed.STUDENT, id, ChangeFeed.Operation.DELETE, null);
+                TransactionCallbacks.afterCommit(() -> {
+                    studentStatistics.onDeleted(deleted);
+                    studentAgeIndex.onDeleted(id);
+                    searchIndex.removeStudent(id);
+                });
+                entityCache.evictStudent(id);
                 logger.info("Deleted student with id={}", id);
             } else {
                 logger.warn("Attempted to delete non-existent student with id={}", id);
@@ -76,8 +217,17 @@ public class StudentService {
         }
     }
 
+    public Faculty findFacultyOfStudent(long id) {
+        logger.debug("Was invoked method for findFacultyOfStudent with id={}", id);
+        Faculty faculty = studentRepository.findFacultyByStudentId(id).orElse(null);
+        if (faculty == null) {
+            logger.warn("No faculty found for student with id={}", id);
+        }
+        return faculty;
+    }
+
     public Collection<Student> getAllStudents() {
-        logger.info("Was invoked method for getAllStudents");
+        logger.debug("Was invoked method for getAllStudents");
         try {
             Collection<Student> students = studentRepository.findAll();
             logger.debug("Fetched {} students", students.size());
@@ -88,8 +238,41 @@ public class StudentService {
         }
     }
 
+    public CursorPage<Student> getStudentsPage(Long after, int limit) {
+        logger.debug("Was invoked method for getStudentsPage");
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Размер страницы должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+        List<Student> students = studentRepository.findPageAfter(after != null ? after : 0L, PageRequest.of(0, limit));
+        Long nextCursor = students.size() == limit ? students.get(students.size() - 1).getId() : null;
+        logger.debug("Fetched {} students after id={}", students.size(), after);
+        return new CursorPage<>(students, nextCursor);
+    }
+
+    @Transactional(readOnly = true)
+    public void writeAllStudents(OutputStream out) throws IOException {
+        logger.debug("Was invoked method for writeAllStudents");
+        long written = 0;
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.writeStartArray();
+        try (Stream<Student> students = studentRepository.streamAll()) {
+            Iterator<Student> iterator = students.iterator();
+            while (iterator.hasNext()) {
+                generator.writeObject(iterator.next());
+                if (++written % STREAM_CLEAR_INTERVAL == 0) {
+                    // отпускаем уже отданных студентов, чтобы контекст не рос вместе с таблицей
+                    entityManager.clear();
+                    generator.flush();
+                }
+            }
+        }
+        generator.writeEndArray();
+        generator.flush();
+        logger.debug("Streamed {} students", written);
+    }
+
     public Collection<Student> getStudentsByAge(int age) {
-        logger.info("Was invoked method for getStudentsByAge with age={}", age);
+        logger.debug("Was invoked method for getStudentsByAge with age={}", age);
         if (age <= 0) {
             logger.warn("Invalid age provided: {}", age);
             return Collections.emptyList();
@@ -105,7 +288,7 @@ public class StudentService {
     }
 
     public Collection<Student> getStudentsByAgeBetween(int min, int max) {
-        logger.info("Was invoked method for getStudentsByAgeBetween with min={} and max={}", min, max);
+        logger.debug("Was invoked method for getStudentsByAgeBetween with min={} and max={}", min, max);
         if (min > max || min < 0 || max < 0) {
             logger.warn("Invalid min/max values: min={}, max={}", min, max);
             return Collections.emptyList();
@@ -121,9 +304,9 @@ public class StudentService {
     }
 
     public long getTotalStudents() {
-        logger.info("Was invoked method for getTotalStudents");
+        logger.debug("Was invoked method for getTotalStudents");
         try {
-            long count = studentRepository.countAllStudents();
+            long count = studentStatistics.getCount();
             logger.debug("Total students: {}", count);
             return count;
         } catch (Exception e) {
@@ -132,22 +315,10 @@ public class StudentService {
         }
     }
 
-//    public Double getAverageAge() {
-//        logger.info("Was invoked method for getAverageAge");
-//        try {
-//            Double avgAge = studentRepository.getAverageAge();
-//            logger.debug("Average age of students: {}", avgAge);
-//            return avgAge;
-//        } catch (Exception e) {
-//            logger.error("Error occurred while calculating average age", e);
-//            throw e;
-//        }
-//    }
-
     public List<Student> getLastFiveStudents() {
-        logger.info("Was invoked method for getLastFiveStudents");
+        logger.debug("Was invoked method for getLastFiveStudents");
         try {
-            List<Student> students = studentRepository.findLastFiveStudents();
+            List<Student> students = studentRepository.findTop5ByOrderByIdDesc();
             logger.debug("Last five students fetched: {}", students);
             return students;
         } catch (Exception e) {
@@ -156,26 +327,65 @@ public class StudentService {
         }
     }
 
-    public List<String> getNamesStartingWithA() {
-        List<Student> allStudents = studentRepository.findAll();
+    public NamePage getNamesByPrefix(String prefix, String after, int limit) {
+        logger.debug("Was invoked method for getNamesByPrefix");
+        if (prefix == null || prefix.isEmpty()) {
+            throw new IllegalArgumentException("Нужно указать начало имени");
+        }
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Размер страницы должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+        // одиночную половину суррогатной пары не хранит база и не кодирует UTF-8
+        if (prefix.codePoints().anyMatch(codePoint -> codePoint >= Character.MIN_SURROGATE
+                && codePoint <= Character.MAX_SURROGATE)) {
+            throw new IllegalArgumentException("Начало имени содержит некорректные символы");
+        }
+        String upper = prefixUpperBound(prefix);
+        String from = after != null ? after : "";
+        List<String> names = upper != null
+                ? studentRepository.findNamesInRange(prefix, upper, from, limit)
+                : studentRepository.findNamesFrom(prefix, from, limit);
+        String nextCursor = names.size() == limit ? names.get(names.size() - 1) : null;
+        logger.debug("Found {} names with prefix={} after={}", names.size(), prefix, after);
+        return new NamePage(names, nextCursor);
+    }
 
-        return allStudents.stream()
-                .map(Student::getName)
-                .filter(name -> name != null && name.startsWith("А"))
-                .map(String::toUpperCase)
-                .distinct()
-                .sorted()
-                .collect(Collectors.toList());
+    // наименьшая строка больше всех строк, начинающихся с prefix, в порядке кодовых точек, как в COLLATE "C":
+    // последняя кодовая точка меньше U+10FFFF увеличивается на один, хвост из U+10FFFF отбрасывается.
+    // null - prefix из одних U+10FFFF, и все строки не меньше него с него и начинаются
+    static String prefixUpperBound(String prefix) {
+        int end = prefix.length();
+        while (end > 0) {
+            int codePoint = prefix.codePointBefore(end);
+            int length = Character.charCount(codePoint);
+            if (codePoint < Character.MAX_CODE_POINT) {
+                int next = codePoint + 1 == Character.MIN_SURROGATE ? Character.MAX_SURROGATE + 1 : codePoint + 1;
+                return new StringBuilder(end).append(prefix, 0, end - length).appendCodePoint(next).toString();
+            }
+            end -= length;
+        }
+        return null;
     }
 
-    public Double getAverageAge() {
-        List<Student> allStudents = studentRepository.findAll();
+    public double getAverageAge() {
+        logger.debug("Was invoked method for getAverageAge");
+        return studentStatistics.getAverageAge();
+    }
+
+    public AgeSummary getAgeSummary(Integer minAge, Integer maxAge, Long facultyId) {
+        logger.debug("Was invoked method for getAgeSummary");
+        int min = minAge != null ? minAge : 0;
+        int max = maxAge != null ? maxAge : Integer.MAX_VALUE;
+        AgeSnapshot snapshot = studentAgeIndex.getSnapshot();
+        if (facultyId == null) {
+            return new AgeSummary(min, max, null, snapshot.count(min, max), snapshot.averageAge(min, max));
+        }
+        return new AgeSummary(min, max, facultyId, snapshot.count(min, max, facultyId),
+                snapshot.averageAge(min, max, facultyId));
+    }
 
-        return allStudents.stream()
-                .parallel()
-                .filter(student -> student.getAge() != null)
-                .mapToInt(Student::getAge)
-                .average()
-                .orElse(0.0);
+    public StudentStatistics.Snapshot getStatistics() {
+        logger.debug("Was invoked method for getStatistics");
+        return studentStatistics.getSnapshot();
     }
 }
\ No newline at end of file
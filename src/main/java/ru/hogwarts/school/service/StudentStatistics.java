@@ -0,0 +1,145 @@
+package ru.hogwarts.school.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repositories.StudentRepository;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@Component
+public class StudentStatistics {
+
+    private static final Logger logger = LoggerFactory.getLogger(StudentStatistics.class);
+
+    private final StudentRepository studentRepository;
+
+    private long count;
+    private long agedCount;
+    private long ageSum;
+    private final Map<Integer, Long> ageHistogram = new HashMap<>();
+    private final Map<Long, Long> facultyCounts = new HashMap<>();
+    private Instant reconciledAt;
+    // изменения, пришедшие, пока идёт запрос сверки; null вне сверки
+    private List<Change> pending;
+
+    public StudentStatistics(StudentRepository studentRepository) {
+        this.studentRepository = studentRepository;
+    }
+
+    // значения, по которым студент попадает в статистику; снимаются до сохранения, пока сущность не перезаписана
+    public record Entry(Integer age, Long facultyId) {
+
+        public static Entry of(Student student) {
+            return new Entry(student.getAge(), student.getFaculty() != null ? student.getFaculty().getId() : null);
+        }
+    }
+
+    private record Change(Entry entry, long delta) {
+    }
+
+    public record Snapshot(long count, double averageAge, Map<Integer, Long> ageHistogram,
+                           Map<Long, Long> facultyCounts, Instant reconciledAt) {
+    }
+
+    public synchronized void onCreated(Entry entry) {
+        record(entry, 1);
+    }
+
+    public synchronized void onUpdated(Entry previous, Entry current) {
+        if (previous != null) {
+            record(previous, -1);
+        }
+        record(current, 1);
+    }
+
+    public synchronized void onDeleted(Entry entry) {
+        record(entry, -1);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getAverageAge() {
+        return agedCount > 0 ? (double) ageSum / agedCount : 0.0;
+    }
+
+    public synchronized Snapshot getSnapshot() {
+        return new Snapshot(count, getAverageAge(), new TreeMap<>(ageHistogram), new TreeMap<>(facultyCounts),
+                reconciledAt);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${students.stats.reconcile-interval-ms:300000}",
+            fixedDelayString = "${students.stats.reconcile-interval-ms:300000}")
+    // запрос идёт без блокировки, поэтому изменения, пришедшие за время запроса, запоминаются
+    // и накладываются на его результат: иначе они бы потерялись при сбросе счётчиков
+    public void reconcile() {
+        synchronized (this) {
+            pending = new ArrayList<>();
+        }
+        List<Object[]> rows;
+        try {
+            rows = studentRepository.countByAgeAndFaculty();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                pending = null;
+            }
+            throw e;
+        }
+        synchronized (this) {
+            long previousCount = count;
+            count = 0;
+            agedCount = 0;
+            ageSum = 0;
+            ageHistogram.clear();
+            facultyCounts.clear();
+            for (Object[] row : rows) {
+                Integer age = (Integer) row[0];
+                Long facultyId = (Long) row[1];
+                long total = ((Number) row[2]).longValue();
+                apply(new Entry(age, facultyId), total);
+            }
+            for (Change change : pending) {
+                apply(change.entry(), change.delta());
+            }
+            pending = null;
+            if (reconciledAt != null && previousCount != count) {
+                logger.warn("Student statistics drifted: count {} reconciled to {}", previousCount, count);
+            }
+            reconciledAt = Instant.now();
+            logger.debug("Reconciled student statistics: {} students in {} groups", count, rows.size());
+        }
+    }
+
+    private void record(Entry entry, long delta) {
+        apply(entry, delta);
+        if (pending != null) {
+            pending.add(new Change(entry, delta));
+        }
+    }
+
+    private void apply(Entry entry, long delta) {
+        count += delta;
+        if (entry.age() != null) {
+            agedCount += delta;
+            ageSum += entry.age() * delta;
+            ageHistogram.merge(entry.age(), delta, Long::sum);
+            ageHistogram.remove(entry.age(), 0L);
+        }
+        if (entry.facultyId() != null) {
+            facultyCounts.merge(entry.facultyId(), delta, Long::sum);
+            facultyCounts.remove(entry.facultyId(), 0L);
+        }
+    }
+}
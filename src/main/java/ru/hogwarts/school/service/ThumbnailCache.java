@@ -0,0 +1,99 @@
+package ru.hogwarts.school.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+public class ThumbnailCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailCache.class);
+
+    private final Cache<Key, CachedThumbnail> cache;
+    private final long maxBytes;
+    // варианты каждого студента, чтобы сбрасывать их без обхода всего кэша
+    private final Map<Long, Set<Key>> keysByStudent = new ConcurrentHashMap<>();
+
+    // ttl ограничивает устаревание, если уведомление о новом аватаре от другого экземпляра потерялось
+    public ThumbnailCache(@Value("${avatars.thumbnail.cache.max-bytes:67108864}") long maxBytes,
+                          @Value("${avatars.thumbnail.cache.ttl-seconds:300}") long ttlSeconds) {
+        this.maxBytes = maxBytes;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .weigher((Key key, CachedThumbnail value) -> value.data().length)
+                // вызывается синхронно при вытеснении по размеру и сроку; явные удаления индекс чистят сами
+                .evictionListener((Key key, CachedThumbnail value, RemovalCause cause) -> {
+                    if (key != null) {
+                        unindex(key);
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    private record Key(long studentId, int width, boolean crop) {
+    }
+
+    // contentHash - хэш исходного файла, по нему строится ETag без обращения к базе
+    public record CachedThumbnail(byte[] data, String mediaType, String contentHash) {
+    }
+
+    public record Stats(long hitCount, long missCount, double hitRate, long evictionCount,
+                        long evictedBytes, long entries, long bytes, long maxBytes) {
+    }
+
+    public CachedThumbnail get(long studentId, int width, boolean crop) {
+        return cache.getIfPresent(new Key(studentId, width, crop));
+    }
+
+    // ключ попадает в индекс до записи в кэш, чтобы вытеснение сразу после записи его и убрало
+    public void put(long studentId, int width, boolean crop, byte[] data, String mediaType, String contentHash) {
+        Key key = new Key(studentId, width, crop);
+        keysByStudent.compute(studentId, (id, keys) -> {
+            Set<Key> result = keys != null ? keys : ConcurrentHashMap.newKeySet();
+            result.add(key);
+            return result;
+        });
+        cache.put(key, new CachedThumbnail(data, mediaType, contentHash));
+    }
+
+    public void invalidateStudent(long studentId) {
+        Set<Key> keys = keysByStudent.remove(studentId);
+        if (keys != null) {
+            cache.invalidateAll(keys);
+        }
+        logger.debug("Invalidated cached thumbnails for studentId={}", studentId);
+    }
+
+    public void invalidateAll() {
+        keysByStudent.clear();
+        cache.invalidateAll();
+    }
+
+    private void unindex(Key key) {
+        keysByStudent.computeIfPresent(key.studentId(), (id, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    public Stats getStats() {
+        CacheStats stats = cache.stats();
+        long bytes = cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+        return new Stats(stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount(),
+                stats.evictionWeight(), cache.estimatedSize(), bytes, maxBytes);
+    }
+}
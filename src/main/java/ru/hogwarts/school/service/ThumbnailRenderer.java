@@ -0,0 +1,190 @@
+package ru.hogwarts.school.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Locale;
+
+@Component
+public class ThumbnailRenderer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailRenderer.class);
+
+    public static final int DEFAULT_WIDTH = 100;
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final DecodeBudget decodeBudget;
+    private final boolean subsamplingEnabled;
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary decodedSize;
+    private final DistributionSummary thumbnailSize;
+
+    public ThumbnailRenderer(DecodeBudget decodeBudget,
+                             @Value("${avatars.decode.subsampling:true}") boolean subsamplingEnabled,
+                             MeterRegistry meterRegistry) {
+        this.decodeBudget = decodeBudget;
+        this.subsamplingEnabled = subsamplingEnabled;
+        this.meterRegistry = meterRegistry;
+        this.decodedSize = DistributionSummary.builder("avatars.thumbnail.decoded")
+                .description("Оценка памяти под декодирование исходника")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.thumbnailSize = DistributionSummary.builder("avatars.thumbnail.size")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    // mediaType - формат, в котором миниатюра реально записана: без писателя исходного формата это png
+    public record Thumbnail(byte[] data, String mediaType) {
+    }
+
+    public Thumbnail render(Path filePath, int width) throws IOException {
+        return render(filePath, width, false);
+    }
+
+    public Thumbnail render(Path filePath, int width, boolean crop) throws IOException {
+        logger.debug("Rendering {}px thumbnail (crop={}) for {}", width, crop, filePath);
+        try (ImageInputStream input = new FileImageInputStream(filePath.toFile())) {
+            return render(input, formatOf(filePath), width, crop);
+        }
+    }
+
+    public Thumbnail render(byte[] source, String format, int width, boolean crop) throws IOException {
+        logger.debug("Rendering {}px thumbnail (crop={}) from {} bytes in memory", width, crop, source.length);
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(source))) {
+            return render(input, format, width, crop);
+        }
+    }
+
+    // source не закрывается: его дочитывает и закрывает вызывающий
+    public Thumbnail render(InputStream source, String format, int width) throws IOException {
+        logger.debug("Rendering {}px thumbnail from upload stream", width);
+        try (ImageInputStream input = new MemoryCacheImageInputStream(source)) {
+            return render(input, format, width, false);
+        }
+    }
+
+    private Thumbnail render(ImageInputStream input, String format, int width, boolean crop) throws IOException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            Thumbnail thumbnail = decodeAndScale(input, format, width, crop);
+            thumbnailSize.record(thumbnail.data().length);
+            outcome = "success";
+            return thumbnail;
+        } finally {
+            sample.stop(Timer.builder("avatars.thumbnail.render")
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+        }
+    }
+
+    private Thumbnail decodeAndScale(ImageInputStream input, String format, int width, boolean crop) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            logger.error("No image reader for {} image", format);
+            throw new IOException("Не удалось прочитать изображение");
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(input, true, true);
+            int imageWidth = reader.getWidth(0);
+            int imageHeight = reader.getHeight(0);
+            if (imageWidth <= 0 || imageHeight <= 0) {
+                throw new IOException("Не удалось прочитать изображение");
+            }
+
+            Rectangle region = new Rectangle(0, 0, imageWidth, imageHeight);
+            if (crop) {
+                int side = Math.min(imageWidth, imageHeight);
+                region = new Rectangle((imageWidth - side) / 2, (imageHeight - side) / 2, side, side);
+            }
+            // читаем каждый n-й пиксель так, чтобы результат был не меньше нужной ширины
+            int subsampling = subsamplingEnabled ? Math.max(1, region.width / width) : 1;
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(region);
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+            long decodedBytes = (long) divideRoundingUp(region.width, subsampling)
+                    * divideRoundingUp(region.height, subsampling) * BYTES_PER_PIXEL;
+            int height = Math.max((region.height * width) / region.width, 1);
+            long estimatedBytes = decodedBytes + (long) width * height * BYTES_PER_PIXEL;
+
+            decodedSize.record(decodedBytes);
+            decodeBudget.acquire(estimatedBytes);
+            try {
+                BufferedImage image = reader.read(0, param);
+                return scale(image, format, width, height);
+            } finally {
+                decodeBudget.release(estimatedBytes);
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private Thumbnail scale(BufferedImage image, String format, int width, int height) throws IOException {
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_CUSTOM) {
+            type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        }
+
+        BufferedImage preview = new BufferedImage(width, height, type);
+        Graphics2D graphics = preview.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        String written = format;
+        if (!ImageIO.write(preview, format, baos)) {
+            logger.warn("No image writer for {}, falling back to png", format);
+            baos.reset();
+            written = "png";
+            ImageIO.write(preview, written, baos);
+        }
+        return new Thumbnail(baos.toByteArray(), mediaTypeOf(written));
+    }
+
+    private static String mediaTypeOf(String format) {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (writers.hasNext()) {
+            String[] types = writers.next().getOriginatingProvider().getMIMETypes();
+            if (types != null && types.length > 0) {
+                return types[0];
+            }
+        }
+        return "image/" + format.toLowerCase(Locale.ROOT);
+    }
+
+    private static int divideRoundingUp(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    public static String formatOf(Path filePath) {
+        String fileName = filePath.getFileName().toString();
+        int lastDotIndex = fileName.lastIndexOf(".");
+        if (lastDotIndex != -1 && lastDotIndex != fileName.length() - 1) {
+            return fileName.substring(lastDotIndex + 1);
+        }
+        return "png";
+    }
+}
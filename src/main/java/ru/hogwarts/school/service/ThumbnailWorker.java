@@ -0,0 +1,142 @@
+package ru.hogwarts.school.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.ThumbnailStatus;
+import ru.hogwarts.school.repositories.AvatarRepository;
+
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Service
+public class ThumbnailWorker {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailWorker.class);
+
+    private final AvatarRepository avatarRepository;
+    private final ThumbnailRenderer thumbnailRenderer;
+    private final AvatarVariantService avatarVariantService;
+    private final UploadMetrics uploadMetrics;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService retryScheduler;
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    private final int maxAttempts;
+    private final long retryDelayMs;
+
+    public ThumbnailWorker(AvatarRepository avatarRepository,
+                           ThumbnailRenderer thumbnailRenderer,
+                           AvatarVariantService avatarVariantService,
+                           UploadMetrics uploadMetrics,
+                           @Value("${avatars.thumbnail.pool-size:2}") int poolSize,
+                           @Value("${avatars.thumbnail.queue-capacity:100}") int queueCapacity,
+                           @Value("${avatars.thumbnail.max-attempts:3}") int maxAttempts,
+                           @Value("${avatars.thumbnail.retry-delay-ms:1000}") long retryDelayMs) {
+        this.avatarRepository = avatarRepository;
+        this.thumbnailRenderer = thumbnailRenderer;
+        this.avatarVariantService = avatarVariantService;
+        this.uploadMetrics = uploadMetrics;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMs = retryDelayMs;
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), namedThreads("thumbnail-"));
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(namedThreads("thumbnail-retry-"));
+    }
+
+    // без готовой миниатюры содержимое читается с диска при рендере, путь берётся из строки аватара
+    public void submit(long avatarId) {
+        submit(avatarId, null, null);
+    }
+
+    // rendered - миниатюра содержимого с хэшем contentHash, сделанная из потока загрузки: в очереди лежат
+    // только её закодированные байты, а не исходник, и файл аватара ради неё не перечитывается
+    public void submit(long avatarId, String contentHash, ThumbnailRenderer.Thumbnail rendered) {
+        if (!inFlight.add(avatarId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> process(avatarId, contentHash, rendered));
+            logger.debug("Queued thumbnail for avatarId={}", avatarId);
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(avatarId);
+            logger.warn("Thumbnail queue is full, avatarId={} will be picked up by the next sweep", avatarId);
+        }
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${avatars.thumbnail.sweep-interval-ms:60000}",
+            fixedDelayString = "${avatars.thumbnail.sweep-interval-ms:60000}")
+    public void sweepPending() {
+        for (Long avatarId : avatarRepository.findIdsByThumbnailStatus(ThumbnailStatus.PENDING)) {
+            submit(avatarId);
+        }
+    }
+
+    private void process(long avatarId, String renderedHash, ThumbnailRenderer.Thumbnail rendered) {
+        Avatar avatar = null;
+        try {
+            avatar = avatarRepository.findById(avatarId).orElse(null);
+            if (avatar == null || avatar.getThumbnailStatus() != ThumbnailStatus.PENDING) {
+                return;
+            }
+            ThumbnailRenderer.Thumbnail thumbnail;
+            // пока задача ждала в очереди, аватар могли заменить - тогда готовая миниатюра уже не его
+            if (rendered != null && renderedHash.equals(avatar.getContentHash())) {
+                thumbnail = rendered;
+                uploadMetrics.recordDiskReadAvoided(avatar.getFileSize());
+            } else {
+                thumbnail = thumbnailRenderer.render(Path.of(avatar.getFilePath()), ThumbnailRenderer.DEFAULT_WIDTH);
+            }
+            avatarVariantService.storeThumbnail(avatar.getContentHash(), thumbnail.mediaType(), thumbnail.data());
+            avatarRepository.updateThumbnailStatus(avatarId, avatar.getContentHash(), ThumbnailStatus.READY,
+                    avatar.getThumbnailAttempts());
+            logger.info("Thumbnail ready for avatarId={}", avatarId);
+        } catch (Exception e) {
+            logger.error("Error generating thumbnail for avatarId={}", avatarId, e);
+            if (avatar != null) {
+                scheduleRetry(avatar);
+            }
+        } finally {
+            inFlight.remove(avatarId);
+        }
+    }
+
+    private void scheduleRetry(Avatar avatar) {
+        int attempts = avatar.getThumbnailAttempts() + 1;
+        if (attempts >= maxAttempts) {
+            avatarRepository.updateThumbnailStatus(avatar.getId(), avatar.getContentHash(), ThumbnailStatus.FAILED, attempts);
+            logger.warn("Giving up on thumbnail for avatarId={} after {} attempts", avatar.getId(), attempts);
+            return;
+        }
+        avatarRepository.updateThumbnailStatus(avatar.getId(), avatar.getContentHash(), ThumbnailStatus.PENDING, attempts);
+        long delay = retryDelayMs << (attempts - 1);
+        retryScheduler.schedule(() -> submit(avatar.getId()), delay, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        executor.shutdown();
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,83 @@
+package ru.hogwarts.school.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+
+@Component
+public class UploadMetrics {
+
+    private final LongAdder uploads = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder duplicateWritesSkipped = new LongAdder();
+    private final LongAdder diskReadsAvoided = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final com.sun.management.ThreadMXBean threadBean;
+    private final DistributionSummary uploadSize;
+
+    public UploadMetrics(MeterRegistry meterRegistry) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        this.threadBean = bean instanceof com.sun.management.ThreadMXBean sunBean
+                && sunBean.isThreadAllocatedMemorySupported() ? sunBean : null;
+        this.uploadSize = DistributionSummary.builder("avatars.upload.size")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        FunctionCounter.builder("avatars.disk.written", bytesWritten, LongAdder::sum)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        FunctionCounter.builder("avatars.disk.duplicate.writes.skipped", duplicateWritesSkipped, LongAdder::sum)
+                .register(meterRegistry);
+        FunctionCounter.builder("avatars.disk.reads.avoided", diskReadsAvoided, LongAdder::sum)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        FunctionCounter.builder("avatars.upload.allocated", allocatedBytes, LongAdder::sum)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    public record Stats(long uploads, long bytesReceived, long bytesWrittenToDisk, long duplicateWritesSkipped,
+                        long diskReadsAvoided, long diskReadsAvoidedPerUpload,
+                        long allocatedBytes, long allocatedBytesPerUpload) {
+    }
+
+    public long currentThreadAllocatedBytes() {
+        return threadBean != null ? threadBean.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    public void recordUpload(long received, long allocatedSince) {
+        uploads.increment();
+        bytesReceived.add(received);
+        uploadSize.record(received);
+        if (allocatedSince >= 0 && threadBean != null) {
+            allocatedBytes.add(threadBean.getCurrentThreadAllocatedBytes() - allocatedSince);
+        }
+    }
+
+    public void recordDiskWrite(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    public void recordDuplicateWriteSkipped() {
+        duplicateWritesSkipped.increment();
+    }
+
+    // миниатюра сделана из потока загрузки, и файл исходника для неё с диска не читался
+    public void recordDiskReadAvoided(long bytes) {
+        diskReadsAvoided.add(bytes);
+    }
+
+    public Stats getStats() {
+        long count = uploads.sum();
+        long readsAvoided = diskReadsAvoided.sum();
+        long allocated = allocatedBytes.sum();
+        return new Stats(count, bytesReceived.sum(), bytesWritten.sum(), duplicateWritesSkipped.sum(),
+                readsAvoided, count > 0 ? readsAvoided / count : 0,
+                allocated, count > 0 ? allocated / count : 0);
+    }
+}
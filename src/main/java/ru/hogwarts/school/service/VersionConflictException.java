@@ -0,0 +1,8 @@
+package ru.hogwarts.school.service;
+
+public class VersionConflictException extends RuntimeException {
+
+    public VersionConflictException(String message) {
+        super(message);
+    }
+}
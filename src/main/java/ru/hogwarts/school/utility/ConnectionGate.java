@@ -0,0 +1,147 @@
+package ru.hogwarts.school.utility;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// с виртуальными потоками запросов больше не ограничивает пул Tomcat, и за соединениями Hikari
+// выстраиваются тысячи потоков. Ворота пускают к пулу не больше потоков, чем в нём соединений,
+// держат ограниченную очередь в порядке прихода и сразу отказывают, когда очередь полна
+@Component
+@ConditionalOnProperty(name = "school.connection-gate.enabled", havingValue = "true")
+public class ConnectionGate implements BeanPostProcessor, MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionGate.class);
+
+    private final Semaphore permits;
+    private final int maxWaiting;
+    private final long acquireTimeoutMs;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public ConnectionGate(@Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize,
+                          @Value("${school.connection-gate.max-waiting:200}") int maxWaiting,
+                          @Value("${school.connection-gate.acquire-timeout-ms:2000}") long acquireTimeoutMs) {
+        this.permits = new Semaphore(poolSize, true);
+        this.maxWaiting = maxWaiting;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource dataSource && !(bean instanceof GatedDataSource)) {
+            logger.info("Gating connections of {} with {} permits", beanName, permits.availablePermits());
+            return new GatedDataSource(dataSource);
+        }
+        return bean;
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    // пул Hikari виден в hikaricp.*, а здесь - очередь перед ним
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("school.connection.gate.waiting", waiting, AtomicInteger::get)
+                .register(registry);
+        Gauge.builder("school.connection.gate.available", permits, Semaphore::availablePermits)
+                .register(registry);
+    }
+
+    private void acquire() throws SQLException {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            throw new SQLTransientConnectionException("Очередь за соединением с базой переполнена");
+        }
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("Не дождались соединения с базой за " + acquireTimeoutMs + " мс");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Ожидание соединения с базой прервано", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    // DelegatingDataSource, чтобы DataSourceUnwrapper по-прежнему находил HikariDataSource
+    private class GatedDataSource extends DelegatingDataSource {
+
+        GatedDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            acquire();
+            try {
+                return releasing(super.getConnection());
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            acquire();
+            try {
+                return releasing(super.getConnection(username, password));
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        // разрешение возвращается при первом close, повторный close его не удваивает
+        private Connection releasing(Connection connection) {
+            AtomicBoolean released = new AtomicBoolean();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                break;
+                        }
+                        if (method.getName().equals("close") && released.compareAndSet(false, true)) {
+                            try {
+                                connection.close();
+                            } finally {
+                                permits.release();
+                            }
+                            return null;
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package ru.hogwarts.school.utility;
+
+public final class ETags {
+
+    private ETags() {
+    }
+
+    // версия сущности из If-Match: null - заголовка нет или он равен "*", -1 - тег не наш и не совпадёт ни с чем
+    public static Long versionOf(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.split(",")[0].trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        tag = tag.replace("\"", "");
+        int dash = tag.indexOf('-');
+        try {
+            return Long.parseLong(dash >= 0 ? tag.substring(0, dash) : tag);
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+-- liquibase formatted sql
+-- changeset mvasechko:3
+create table avatar_blob (
+    hash varchar(64) primary key,
+    file_path varchar(255) not null,
+    file_size bigint not null,
+    media_type varchar(255),
+    ref_count integer not null default 0
+);
+alter table avatar add column content_hash varchar(64);
+create index avatar_content_hash_index on avatar (content_hash);
+
+-- changeset mvasechko:4
+alter table avatar add column thumbnail_status varchar(16);
+alter table avatar add column thumbnail_attempts integer not null default 0;
+update avatar set thumbnail_status = 'READY' where data is not null;
+create index avatar_thumbnail_status_index on avatar (thumbnail_status);
+
+-- changeset mvasechko:5
+create table avatar_variant (
+    id bigserial primary key,
+    content_hash varchar(64) not null,
+    width integer not null,
+    crop boolean not null default false,
+    media_type varchar(255),
+    data bytea not null,
+    constraint avatar_variant_unique unique (content_hash, width, crop)
+);
+
+-- changeset mvasechko:6 splitStatements:false
+update avatar set content_hash = 'legacy-' || id where content_hash is null and data is not null;
+do $$
+begin
+    if exists (select 1 from information_schema.columns
+               where table_name = 'avatar' and column_name = 'data' and data_type = 'oid') then
+        insert into avatar_variant (content_hash, width, crop, media_type, data)
+        select distinct on (content_hash) content_hash, 100, false, media_type, lo_get(data)
+        from avatar where data is not null
+        order by content_hash, id
+        on conflict (content_hash, width, crop) do nothing;
+        perform lo_unlink(data) from avatar where data is not null;
+    else
+        insert into avatar_variant (content_hash, width, crop, media_type, data)
+        select distinct on (content_hash) content_hash, 100, false, media_type, data
+        from avatar where data is not null
+        order by content_hash, id
+        on conflict (content_hash, width, crop) do nothing;
+    end if;
+end $$;
+
+-- changeset mvasechko:7
+alter table avatar drop column data;
+
+-- changeset mvasechko:14
+-- миниатюры, которые писатель исходного формата не смог записать и записал в png, хранились с типом исходника
+update avatar_variant set media_type = 'image/png'
+where substring(data from 1 for 8) = '\x89504e470d0a1a0a'::bytea and media_type is distinct from 'image/png';
@@ -0,0 +1,13 @@
+-- liquibase formatted sql
+-- changeset mvasechko:13
+create table change_event
+(
+    id          bigserial primary key,
+    seq         bigint unique,
+    entity_type varchar(16) not null,
+    entity_id   bigint      not null,
+    operation   varchar(8)  not null,
+    version     bigint,
+    created_at  timestamptz not null default now()
+);
+create index change_event_unsequenced_index on change_event (id) where seq is null;
@@ -1,3 +1,6 @@
 -- liquibase formatted sql
 -- changeset mvasechko:2
-create index faculty_name_color_index on faculty (name, color);
\ No newline at end of file
+create index faculty_name_color_index on faculty (name, color);
+
+-- changeset mvasechko:11
+alter table faculty add column version bigint not null default 0;
\ No newline at end of file
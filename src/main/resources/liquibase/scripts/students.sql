@@ -1,3 +1,15 @@
 -- liquibase formatted sql
 -- changeset mvasechko:1
-create index student_name_index on student (name);
\ No newline at end of file
+create index student_name_index on student (name);
+
+-- changeset mvasechko:8
+create index student_name_c_index on student (name collate "C");
+
+-- changeset mvasechko:9
+create index student_age_index on student (age);
+
+-- changeset mvasechko:10
+create index student_faculty_id_index on student (faculty_id, id);
+
+-- changeset mvasechko:12
+alter table student add column version bigint not null default 0;
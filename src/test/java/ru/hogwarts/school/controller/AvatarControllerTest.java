@@ -0,0 +1,220 @@
+package ru.hogwarts.school.controller;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.multipart.MultipartFile;
+import ru.hogwarts.school.dto.AvatarVersion;
+import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.ThumbnailStatus;
+import ru.hogwarts.school.service.AvatarImportService;
+import ru.hogwarts.school.service.AvatarService;
+import ru.hogwarts.school.service.AvatarVariantService;
+import ru.hogwarts.school.service.DecodeBudget;
+import ru.hogwarts.school.service.StudentService;
+import ru.hogwarts.school.service.ThumbnailCache;
+import ru.hogwarts.school.utility.FileSender;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = AvatarController.class)
+@Import(FileSender.class)
+class AvatarControllerTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private AvatarService avatarService;
+
+    @MockBean
+    private StudentService studentService;
+
+    @MockBean
+    private AvatarVariantService avatarVariantService;
+
+    @MockBean
+    private AvatarImportService avatarImportService;
+
+    @MockBean
+    private ThumbnailCache thumbnailCache;
+
+    @MockBean
+    private DecodeBudget decodeBudget;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Повторная загрузка того же файла аватара")
+    void testUploadAvatar_SameContentTwice() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "avatar.png", "image/png", new byte[]{1, 2, 3});
+
+        mockMvc.perform(multipart("/avatars/1/avatar").file(file))
+                .andExpect(status().isOk())
+                .andExpect(content().string("Аватар успешно загружен"));
+        mockMvc.perform(multipart("/avatars/1/avatar").file(file))
+                .andExpect(status().isOk())
+                .andExpect(content().string("Аватар успешно загружен"));
+
+        // дедупликация по хэшу - дело AvatarService: контроллер каждый раз передаёт файл ему целиком
+        verify(avatarService, times(2)).processAndUploadAvatar(eq(1L),
+                argThat(uploaded -> Arrays.equals(getBytes(uploaded), new byte[]{1, 2, 3})));
+    }
+
+    @Test
+    @DisplayName("Загрузка аватара несуществующему студенту")
+    void testUploadAvatar_StudentNotFound() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "avatar.png", "image/png", new byte[]{1, 2, 3});
+        doThrow(new IllegalArgumentException("Студент с id 1 не найден"))
+                .when(avatarService).processAndUploadAvatar(eq(1L), any());
+
+        mockMvc.perform(multipart("/avatars/1/avatar").file(file))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Студент с id 1 не найден"));
+    }
+
+    @Test
+    @DisplayName("Оригинал аватара целиком")
+    void testGetAvatarFromFile() throws Exception {
+        byte[] bytes = "0123456789".getBytes();
+        when(avatarService.findAvatar(1L)).thenReturn(avatar(writeFile(bytes), "abc"));
+
+        mockMvc.perform(get("/avatars/file/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"abc\""))
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "image/png"))
+                .andExpect(content().bytes(bytes));
+    }
+
+    @Test
+    @DisplayName("Часть оригинала аватара по заголовку Range")
+    void testGetAvatarFromFile_Range() throws Exception {
+        when(avatarService.findAvatar(1L)).thenReturn(avatar(writeFile("0123456789".getBytes()), "abc"));
+
+        mockMvc.perform(get("/avatars/file/1").header(HttpHeaders.RANGE, "bytes=2-5"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/10"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 4))
+                .andExpect(content().bytes("2345".getBytes()));
+
+        mockMvc.perform(get("/avatars/file/1").header(HttpHeaders.RANGE, "bytes=-3"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 7-9/10"))
+                .andExpect(content().bytes("789".getBytes()));
+    }
+
+    @Test
+    @DisplayName("Невыполнимый диапазон оригинала аватара")
+    void testGetAvatarFromFile_RangeNotSatisfiable() throws Exception {
+        when(avatarService.findAvatar(1L)).thenReturn(avatar(writeFile("0123456789".getBytes()), "abc"));
+
+        mockMvc.perform(get("/avatars/file/1").header(HttpHeaders.RANGE, "bytes=20-30"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */10"));
+    }
+
+    @Test
+    @DisplayName("Диапазон по устаревшему If-Range отдаёт файл целиком")
+    void testGetAvatarFromFile_IfRangeMismatch() throws Exception {
+        byte[] bytes = "0123456789".getBytes();
+        when(avatarService.findAvatar(1L)).thenReturn(avatar(writeFile(bytes), "abc"));
+
+        mockMvc.perform(get("/avatars/file/1")
+                        .header(HttpHeaders.RANGE, "bytes=2-5")
+                        .header(HttpHeaders.IF_RANGE, "\"old\""))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(bytes));
+    }
+
+    @Test
+    @DisplayName("Оригинал аватара не изменился")
+    void testGetAvatarFromFile_NotModified() throws Exception {
+        when(avatarService.findAvatar(1L)).thenReturn(avatar(writeFile("0123456789".getBytes()), "abc"));
+
+        mockMvc.perform(get("/avatars/file/1").header(HttpHeaders.IF_NONE_MATCH, "\"abc\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    @DisplayName("Миниатюра из кэша не изменилась")
+    void testGetAvatarFromDb_NotModifiedFromCache() throws Exception {
+        when(thumbnailCache.get(1L, 100, false))
+                .thenReturn(new ThumbnailCache.CachedThumbnail(new byte[]{1, 2, 3}, "image/png", "abc"));
+
+        mockMvc.perform(get("/avatars/student/1").header(HttpHeaders.IF_NONE_MATCH, "\"abc-100\""))
+                .andExpect(status().isNotModified());
+
+        verifyNoInteractions(avatarService, avatarVariantService);
+    }
+
+    @Test
+    @DisplayName("Миниатюра не изменилась, проверка по версии аватара без чтения картинки")
+    void testGetAvatarFromDb_NotModifiedByVersion() throws Exception {
+        when(avatarService.findAvatarVersion(1L)).thenReturn(new AvatarVersion("abc", ThumbnailStatus.READY));
+
+        mockMvc.perform(get("/avatars/student/1")
+                        .param("w", "256")
+                        .param("crop", "true")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"abc-256c\""))
+                .andExpect(status().isNotModified());
+
+        verify(avatarService, never()).findAvatar(anyLong());
+        verifyNoInteractions(avatarVariantService);
+    }
+
+    @Test
+    @DisplayName("Миниатюра ещё создаётся: 304 не отдаётся")
+    void testGetAvatarFromDb_PendingIsNotCached() throws Exception {
+        Avatar avatar = avatar(tempDir.resolve("missing.png"), "abc");
+        avatar.setThumbnailStatus(ThumbnailStatus.PENDING);
+        when(avatarService.findAvatarVersion(1L)).thenReturn(new AvatarVersion("abc", ThumbnailStatus.PENDING));
+        when(avatarService.findAvatar(1L)).thenReturn(avatar);
+
+        mockMvc.perform(get("/avatars/student/1").header(HttpHeaders.IF_NONE_MATCH, "\"abc-100\""))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+    }
+
+    private Path writeFile(byte[] bytes) throws Exception {
+        return Files.write(tempDir.resolve("avatar.png"), bytes);
+    }
+
+    private static Avatar avatar(Path path, String contentHash) {
+        Avatar avatar = new Avatar();
+        avatar.setId(1L);
+        avatar.setFilePath(path.toString());
+        avatar.setMediaType("image/png");
+        avatar.setContentHash(contentHash);
+        return avatar;
+    }
+
+    private static byte[] getBytes(MultipartFile file) {
+        try {
+            return file.getBytes();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
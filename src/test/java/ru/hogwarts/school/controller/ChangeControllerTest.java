@@ -0,0 +1,56 @@
+package ru.hogwarts.school.controller;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+import ru.hogwarts.school.dto.ChangeEvent;
+import ru.hogwarts.school.dto.ChangePage;
+import ru.hogwarts.school.service.ChangeCursorExpiredException;
+import ru.hogwarts.school.service.ChangeFeed;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = ChangeController.class)
+class ChangeControllerTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private ChangeFeed changeFeed;
+
+    @Test
+    @DisplayName("Изменения после курсора")
+    void testGetChanges() throws Exception {
+        Instant now = Instant.now();
+        ChangePage page = new ChangePage(List.of(
+                new ChangeEvent(11L, ChangeFeed.STUDENT, 1L, "UPSERT", 3L, now),
+                new ChangeEvent(12L, ChangeFeed.FACULTY, 2L, "DELETE", null, now)), 12L);
+        when(changeFeed.getChanges(10L, 100)).thenReturn(page);
+
+        mockMvc.perform(get("/changes").param("since", "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(2))
+                .andExpect(jsonPath("$.items[0].seq").value(11))
+                .andExpect(jsonPath("$.items[0].entityType").value(ChangeFeed.STUDENT))
+                .andExpect(jsonPath("$.items[1].operation").value("DELETE"))
+                .andExpect(jsonPath("$.nextCursor").value(12));
+    }
+
+    @Test
+    @DisplayName("Изменения после устаревшего курсора")
+    void testGetChanges_CursorExpired() throws Exception {
+        when(changeFeed.getChanges(5L, 100)).thenThrow(new ChangeCursorExpiredException("События уже удалены"));
+
+        mockMvc.perform(get("/changes").param("since", "5"))
+                .andExpect(status().isGone());
+    }
+}
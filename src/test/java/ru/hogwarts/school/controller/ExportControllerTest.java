@@ -0,0 +1,61 @@
+package ru.hogwarts.school.controller;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import ru.hogwarts.school.service.ExportService;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(controllers = ExportController.class)
+class ExportControllerTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private ExportService exportService;
+
+    @Test
+    @DisplayName("Выгрузка студентов факультета в csv")
+    void testExportStudentsCsv() throws Exception {
+        when(exportService.exportStudents(any(OutputStream.class), eq(ExportService.Format.CSV), eq(1L), eq(11), eq(12)))
+                .thenAnswer(invocation -> {
+                    OutputStream out = invocation.getArgument(0);
+                    out.write("id,name,age,faculty_id\r\n1,Гарри,11,1\r\n".getBytes(StandardCharsets.UTF_8));
+                    return 1L;
+                });
+
+        MvcResult result = mockMvc.perform(get("/export/students")
+                        .param("format", "csv")
+                        .param("facultyId", "1")
+                        .param("minAge", "11")
+                        .param("maxAge", "12"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"students.csv\""))
+                .andExpect(content().string("id,name,age,faculty_id\r\n1,Гарри,11,1\r\n"));
+    }
+
+    @Test
+    @DisplayName("Выгрузка в неизвестном формате")
+    void testExportUnknownFormat() throws Exception {
+        mockMvc.perform(get("/export/faculties")
+                        .param("format", "xml"))
+                .andExpect(status().isBadRequest());
+    }
+}
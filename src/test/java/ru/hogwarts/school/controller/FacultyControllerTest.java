@@ -8,6 +8,7 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import ru.hogwarts.school.dto.RosterPage;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
 import ru.hogwarts.school.service.FacultyService;
@@ -51,6 +52,17 @@ class FacultyControllerTest {
                 .andExpect(jsonPath("$[1].name").value("Еще тестовый факультет"));
     }
 
+    @Test
+    @DisplayName("Список факультетов не изменился")
+    void testGetAllFaculties_NotModified() throws Exception {
+        when(facultyService.getFacultiesETag()).thenReturn("4-1f");
+
+        mockMvc.perform(get("/faculties")
+                        .header("If-None-Match", "\"4-1f\""))
+                .andExpect(status().isNotModified());
+        verify(facultyService, never()).getAllFaculties();
+    }
+
     @Test
     @DisplayName("Создание факультетов")
     void testCreateFaculty() throws Exception {
@@ -151,23 +163,23 @@ class FacultyControllerTest {
         Student student2 = new Student();
         student2.setId(2);
         student2.setName("Тестовый студент 2");
-        Faculty faculty = new Faculty();
-        faculty.setId(10);
-        faculty.setName("Тестовый факультет");
-        faculty.setStudents(Arrays.asList(student1, student2));
-
-        when(facultyService.findFaculty(10)).thenReturn(faculty);
+        when(facultyService.getStudentsOfFaculty(10, null, 2, true))
+                .thenReturn(new RosterPage(Arrays.asList(student1, student2), 2L, 3L));
 
-        mockMvc.perform(get("/faculties/10/students"))
+        mockMvc.perform(get("/faculties/10/students")
+                        .param("limit", "2")
+                        .param("withTotal", "true"))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$[0].name").value("Тестовый студент 1"))
-                .andExpect(jsonPath("$[1].name").value("Тестовый студент 2"));
+                .andExpect(jsonPath("$.items[0].name").value("Тестовый студент 1"))
+                .andExpect(jsonPath("$.items[1].name").value("Тестовый студент 2"))
+                .andExpect(jsonPath("$.nextCursor").value(2))
+                .andExpect(jsonPath("$.total").value(3));
     }
 
     @Test
     @DisplayName("Получение студентов по id факультета, если такого факультета нет")
     void testGetStudentsByFaculty_NotFound() throws Exception {
-        when(facultyService.findFaculty(99)).thenReturn(null);
+        when(facultyService.getStudentsOfFaculty(99, null, 50, false)).thenReturn(null);
 
         mockMvc.perform(get("/faculties/99/students"))
                 .andExpect(status().isNotFound());
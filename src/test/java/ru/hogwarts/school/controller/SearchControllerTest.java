@@ -0,0 +1,54 @@
+package ru.hogwarts.school.controller;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+import ru.hogwarts.school.service.SearchIndex;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = SearchController.class)
+class SearchControllerTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private SearchIndex searchIndex;
+
+    @Test
+    @DisplayName("Поиск по студентам и факультетам")
+    void testSearch() throws Exception {
+        SearchIndex.Result result = new SearchIndex.Result(List.of(
+                new SearchIndex.Hit(SearchIndex.Type.STUDENT, 1L, "Гарри Поттер", 1.5),
+                new SearchIndex.Hit(SearchIndex.Type.FACULTY, 2L, "Гриффиндор красный", 0.4)), false, 120);
+        when(searchIndex.search("гари", null, 20)).thenReturn(result);
+
+        mockMvc.perform(get("/search").param("q", "гари"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(2))
+                .andExpect(jsonPath("$.items[0].type").value("STUDENT"))
+                .andExpect(jsonPath("$.items[0].id").value(1))
+                .andExpect(jsonPath("$.items[1].type").value("FACULTY"))
+                .andExpect(jsonPath("$.partial").value(false));
+    }
+
+    @Test
+    @DisplayName("Поиск с пустой строкой")
+    void testSearchBlankQuery() throws Exception {
+        when(searchIndex.search(any(), any(), anyInt()))
+                .thenThrow(new IllegalArgumentException("Строка поиска не должна быть пустой"));
+
+        mockMvc.perform(get("/search").param("q", " "))
+                .andExpect(status().isBadRequest());
+    }
+}
@@ -6,17 +6,29 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
 import org.springframework.test.web.servlet.MockMvc;
+import ru.hogwarts.school.dto.AgeSummary;
+import ru.hogwarts.school.dto.CursorPage;
+import ru.hogwarts.school.dto.NamePage;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.service.StudentBulkService;
 import ru.hogwarts.school.service.StudentService;
+import ru.hogwarts.school.service.StudentStatistics;
+import ru.hogwarts.school.service.VersionConflictException;
 
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -28,6 +40,9 @@ class StudentControllerTest {
     @MockBean
     private StudentService studentService;
 
+    @MockBean
+    private StudentBulkService studentBulkService;
+
     @Autowired
     private ObjectMapper objectMapper;
 
@@ -48,6 +63,115 @@ class StudentControllerTest {
                 .andExpect(jsonPath("$[1].name").value("Студент 2"));
     }
 
+    @Test
+    @DisplayName("Получение страницы студентов после курсора")
+    void testGetStudentsPage() throws Exception {
+        Student student = new Student();
+        student.setId(11);
+        student.setName("Студент 11");
+        when(studentService.getStudentsPage(10L, 1)).thenReturn(new CursorPage<>(List.of(student), 11L));
+
+        mockMvc.perform(get("/students/page")
+                        .param("after", "10")
+                        .param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items[0].name").value("Студент 11"))
+                .andExpect(jsonPath("$.nextCursor").value(11));
+    }
+
+    @Test
+    @DisplayName("Нет свободного соединения с базой")
+    void testGetStudentsPage_NoConnection() throws Exception {
+        when(studentService.getStudentsPage(null, 50))
+                .thenThrow(new CannotGetJdbcConnectionException("Очередь за соединением с базой переполнена"));
+
+        mockMvc.perform(get("/students/page"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+    }
+
+    @Test
+    @DisplayName("Получение статистики студентов")
+    void testGetStatistics() throws Exception {
+        StudentStatistics.Snapshot snapshot = new StudentStatistics.Snapshot(3, 12.0,
+                Map.of(11, 1L, 12, 1L, 13, 1L), Map.of(1L, 3L), Instant.now());
+        when(studentService.getStatistics()).thenReturn(snapshot);
+
+        mockMvc.perform(get("/students/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(3))
+                .andExpect(jsonPath("$.averageAge").value(12.0))
+                .andExpect(jsonPath("$.facultyCounts.1").value(3));
+    }
+
+    @Test
+    @DisplayName("Поиск имён студентов по началу имени")
+    void testGetNamesByPrefix() throws Exception {
+        when(studentService.getNamesByPrefix("Ал", null, 2)).thenReturn(new NamePage(List.of("Алиса", "Алла"), "Алла"));
+
+        mockMvc.perform(get("/students/names")
+                        .param("prefix", "Ал")
+                        .param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items[0]").value("Алиса"))
+                .andExpect(jsonPath("$.nextCursor").value("Алла"));
+    }
+
+    @Test
+    @DisplayName("Поиск имён с пустым началом имени")
+    void testGetNamesByPrefix_BadRequest() throws Exception {
+        when(studentService.getNamesByPrefix("", null, 50)).thenThrow(new IllegalArgumentException("Нужно указать начало имени"));
+
+        mockMvc.perform(get("/students/names")
+                        .param("prefix", ""))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @DisplayName("Пакетное добавление студентов из NDJSON")
+    void testCreateStudentsBulk() throws Exception {
+        StudentBulkService.BulkReport report = new StudentBulkService.BulkReport(2, 2, 0, 5,
+                List.of(new StudentBulkService.ChunkReport(1, 2, 2, 0, 5, 400.0, List.of())));
+        when(studentBulkService.createStudents(any())).thenReturn(report);
+
+        mockMvc.perform(post("/students/bulk")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{\"name\":\"Студент 1\",\"age\":11}\n{\"name\":\"Студент 2\",\"age\":12}\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.written").value(2))
+                .andExpect(jsonPath("$.chunks[0].rowsPerSecond").value(400.0));
+    }
+
+    @Test
+    @DisplayName("Пакетное редактирование студентов из NDJSON")
+    void testUpdateStudentsBulk() throws Exception {
+        StudentBulkService.BulkReport report = new StudentBulkService.BulkReport(2, 1, 1, 5,
+                List.of(new StudentBulkService.ChunkReport(1, 2, 1, 1, 5, 200.0, List.of("Студент с id 6 не найден"))));
+        when(studentBulkService.updateStudents(any())).thenReturn(report);
+
+        mockMvc.perform(put("/students/bulk")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{\"id\":5,\"name\":\"Студент 5\",\"age\":12}\n{\"id\":6,\"name\":\"Студент 6\"}\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.written").value(1))
+                .andExpect(jsonPath("$.failed").value(1))
+                .andExpect(jsonPath("$.chunks[0].errors[0]").value("Студент с id 6 не найден"));
+    }
+
+    @Test
+    @DisplayName("Сводка по возрасту студентов факультета")
+    void testGetAgeSummary() throws Exception {
+        when(studentService.getAgeSummary(12, 14, 1L)).thenReturn(new AgeSummary(12, 14, 1L, 2, 13.0));
+
+        mockMvc.perform(get("/students/age/summary")
+                        .param("min", "12")
+                        .param("max", "14")
+                        .param("facultyId", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(2))
+                .andExpect(jsonPath("$.averageAge").value(13.0));
+    }
+
     @Test
     @DisplayName("Тест добавление студентов")
     void testCreateStudent() throws Exception {
@@ -75,6 +199,17 @@ class StudentControllerTest {
                 .andExpect(jsonPath("$.name").value("Тестовый студент"));
     }
 
+    @Test
+    @DisplayName("Получение неизменившегося студента по ETag")
+    void testGetStudentInfo_NotModified() throws Exception {
+        when(studentService.getStudentETag(10L)).thenReturn("3-1.0");
+
+        mockMvc.perform(get("/students/10")
+                        .header("If-None-Match", "\"3-1.0\""))
+                .andExpect(status().isNotModified());
+        verify(studentService, never()).findStudent(anyLong());
+    }
+
     @Test
     @DisplayName("Получение студента по id если его нет")
     void testGetStudentInfo_NotFound() throws Exception {
@@ -100,6 +235,22 @@ class StudentControllerTest {
                 .andExpect(jsonPath("$.name").value("Тестовый студент"));
     }
 
+    @Test
+    @DisplayName("Редактирование студента с устаревшим If-Match")
+    void testEditStudent_VersionConflict() throws Exception {
+        Student student = new Student();
+        student.setId(1);
+        student.setName("Тестовый студент");
+        when(studentService.editStudent(any(Student.class), eq(2L)))
+                .thenThrow(new VersionConflictException("Студент с id 1 уже изменён, обновите данные и повторите"));
+
+        mockMvc.perform(put("/students")
+                        .header("If-Match", "\"2-1.0\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(student)))
+                .andExpect(status().isPreconditionFailed());
+    }
+
     @Test
     @DisplayName("Редактирование студента, если его нет")
     void testEditStudent_NotFound() throws Exception {
@@ -147,11 +298,7 @@ class StudentControllerTest {
         Faculty faculty = new Faculty();
         //faculty.setId(1);
         faculty.setName("Тестовый факультет");
-        Student student = new Student();
-        //student.setId(10);
-        student.setName("Тестовый студент");
-        student.setFaculty(faculty);
-        when(studentService.findStudent(10)).thenReturn(student);
+        when(studentService.findFacultyOfStudent(10)).thenReturn(faculty);
 
         mockMvc.perform(get("/students/10/faculty"))
                 .andExpect(status().isOk())
@@ -161,11 +308,7 @@ class StudentControllerTest {
     @Test
     @DisplayName("Просмотр факультета студента, если факультет не найден")
     void testGetFacultyByStudent_NotFound() throws Exception {
-        Student student = new Student();
-        //student.setId(2); по правилам хорошего тона пишут, что нужно писать id, но работает и без него (в других местах то же самое)
-        student.setName("Тестовый студент");
-        student.setFaculty(null);
-        when(studentService.findStudent(2)).thenReturn(student);
+        when(studentService.findFacultyOfStudent(2)).thenReturn(null);
 
         mockMvc.perform(get("/students/2/faculty"))
                 .andExpect(status().isNotFound());
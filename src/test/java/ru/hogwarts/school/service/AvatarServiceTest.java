@@ -0,0 +1,205 @@
+package ru.hogwarts.school.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.AvatarBlob;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.model.ThumbnailStatus;
+import ru.hogwarts.school.repositories.AvatarBlobRepository;
+import ru.hogwarts.school.repositories.AvatarRepository;
+import ru.hogwarts.school.repositories.AvatarVariantRepository;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+// настоящее хранилище блобов во временном каталоге: база заменена заглушками, файлы - настоящие
+class AvatarServiceTest {
+
+    private static final long STUDENT_ID = 1L;
+
+    @TempDir
+    Path avatarsDir;
+
+    private final StudentService studentService = mock(StudentService.class);
+    private final AvatarRepository avatarRepository = mock(AvatarRepository.class);
+    private final AvatarBlobRepository avatarBlobRepository = mock(AvatarBlobRepository.class);
+    private final AvatarVariantRepository avatarVariantRepository = mock(AvatarVariantRepository.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final ThumbnailWorker thumbnailWorker = mock(ThumbnailWorker.class);
+    private final AvatarVariantService avatarVariantService = mock(AvatarVariantService.class);
+    private final EntityCache entityCache = mock(EntityCache.class);
+    private final ChangeFeed changeFeed = mock(ChangeFeed.class);
+
+    private UploadMetrics uploadMetrics;
+    private AvatarBlobStore avatarBlobStore;
+    private AvatarService avatarService;
+
+    @BeforeEach
+    void setUp() {
+        uploadMetrics = new UploadMetrics(new SimpleMeterRegistry());
+        avatarBlobStore = new AvatarBlobStore(avatarBlobRepository, avatarVariantRepository, uploadMetrics,
+                jdbcTemplate, new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        ReflectionTestUtils.setField(avatarBlobStore, "avatarsDir", avatarsDir.toString());
+        ThumbnailRenderer thumbnailRenderer = new ThumbnailRenderer(new DecodeBudget(64L << 20, 1000), true,
+                new SimpleMeterRegistry());
+        avatarService = new AvatarService(studentService, avatarRepository, avatarBlobStore, thumbnailWorker,
+                thumbnailRenderer, avatarVariantService, entityCache, uploadMetrics, changeFeed);
+
+        Student student = new Student();
+        student.setId(STUDENT_ID);
+        when(studentService.findStudent(STUDENT_ID)).thenReturn(student);
+        when(avatarRepository.findByStudentId(STUDENT_ID)).thenReturn(Optional.empty());
+        when(avatarRepository.save(any(Avatar.class))).thenAnswer(invocation -> {
+            Avatar avatar = invocation.getArgument(0);
+            avatar.setId(10L);
+            return avatar;
+        });
+    }
+
+    @Test
+    @DisplayName("Первая загрузка аватара переносит файл в хранилище по хэшу")
+    void testFirstUpload() throws Exception {
+        byte[] content = {1, 2, 3};
+
+        avatarService.processAndUploadAvatar(STUDENT_ID, file(content));
+
+        Avatar saved = savedAvatar();
+        assertEquals(sha256(content), saved.getContentHash());
+        assertEquals(blobPath(content), Path.of(saved.getFilePath()));
+        assertArrayEquals(content, Files.readAllBytes(blobPath(content)));
+        assertEquals(3, saved.getFileSize());
+        assertEquals(ThumbnailStatus.PENDING, saved.getThumbnailStatus());
+        verify(jdbcTemplate).batchUpdate(anyString(), anyList());
+        // не картинка: миниатюру из потока сделать нельзя, воркер попробует сам из файла
+        verify(thumbnailWorker).submit(eq(10L), eq(sha256(content)), isNull());
+        verify(avatarBlobRepository, never()).findById(anyString());
+        assertEquals(3, uploadMetrics.getStats().bytesWrittenToDisk());
+        assertNoTempFiles();
+    }
+
+    @Test
+    @DisplayName("Миниатюра декодируется из того же прохода по загрузке")
+    void testUploadRendersThumbnailFromStream() throws Exception {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB), "png", png);
+        byte[] content = png.toByteArray();
+
+        avatarService.processAndUploadAvatar(STUDENT_ID, file(content));
+
+        ArgumentCaptor<ThumbnailRenderer.Thumbnail> thumbnail = ArgumentCaptor.forClass(ThumbnailRenderer.Thumbnail.class);
+        verify(thumbnailWorker).submit(eq(10L), eq(sha256(content)), thumbnail.capture());
+        BufferedImage preview = ImageIO.read(new ByteArrayInputStream(thumbnail.getValue().data()));
+        assertEquals(ThumbnailRenderer.DEFAULT_WIDTH, preview.getWidth());
+        assertEquals(50, preview.getHeight());
+        assertEquals("image/png", thumbnail.getValue().mediaType());
+        // файл записан целиком, хотя декодер мог остановиться раньше конца потока
+        assertArrayEquals(content, Files.readAllBytes(blobPath(content)));
+        assertNoTempFiles();
+    }
+
+    @Test
+    @DisplayName("Повторная загрузка того же содержимого ничего не меняет")
+    void testReuploadSameContent() throws Exception {
+        byte[] content = {1, 2, 3};
+        avatarService.processAndUploadAvatar(STUDENT_ID, file(content));
+        Avatar saved = savedAvatar();
+        when(avatarRepository.findByStudentId(STUDENT_ID)).thenReturn(Optional.of(saved));
+        clearInvocations(avatarRepository, jdbcTemplate, thumbnailWorker, changeFeed);
+
+        avatarService.processAndUploadAvatar(STUDENT_ID, file(content));
+
+        verify(avatarRepository, never()).save(any());
+        verifyNoInteractions(jdbcTemplate, thumbnailWorker, changeFeed);
+        verify(avatarBlobRepository, never()).decrementRefCount(anyString());
+        assertArrayEquals(content, Files.readAllBytes(blobPath(content)));
+        assertEquals(3, uploadMetrics.getStats().bytesWrittenToDisk());
+        assertNoTempFiles();
+    }
+
+    @Test
+    @DisplayName("Загрузка другого содержимого освобождает прежний блоб")
+    void testUploadDifferentContentReleasesPrevious() throws Exception {
+        byte[] first = {1, 2, 3};
+        byte[] second = {4, 5, 6, 7};
+        avatarService.processAndUploadAvatar(STUDENT_ID, file(first));
+        Avatar saved = savedAvatar();
+        when(avatarRepository.findByStudentId(STUDENT_ID)).thenReturn(Optional.of(saved));
+        AvatarBlob previous = new AvatarBlob();
+        previous.setHash(sha256(first));
+        previous.setFilePath(blobPath(first).toString());
+        previous.setRefCount(1);
+        when(avatarBlobRepository.findById(sha256(first))).thenReturn(Optional.of(previous));
+        when(avatarBlobRepository.deleteIfUnreferenced(sha256(first))).thenReturn(1);
+        when(avatarBlobRepository.findAllById(any())).thenReturn(List.of());
+
+        avatarService.processAndUploadAvatar(STUDENT_ID, file(second));
+
+        assertEquals(sha256(second), saved.getContentHash());
+        assertEquals(blobPath(second), Path.of(saved.getFilePath()));
+        assertArrayEquals(second, Files.readAllBytes(blobPath(second)));
+        verify(avatarBlobRepository).decrementRefCount(sha256(first));
+        verify(avatarVariantRepository).deleteByContentHash(sha256(first));
+
+        // файл прежнего блоба удаляет очистка, а не сама загрузка
+        assertTrue(Files.exists(blobPath(first)));
+        avatarBlobStore.deleteReleased();
+        assertFalse(Files.exists(blobPath(first)));
+        assertTrue(Files.exists(blobPath(second)));
+        assertNoTempFiles();
+    }
+
+    private Avatar savedAvatar() {
+        verify(avatarRepository, atLeastOnce()).save(any(Avatar.class));
+        return mockingDetails(avatarRepository).getInvocations().stream()
+                .filter(invocation -> invocation.getMethod().getName().equals("save"))
+                .map(invocation -> (Avatar) invocation.getArgument(0))
+                .reduce((first, second) -> second)
+                .orElseThrow();
+    }
+
+    private Path blobPath(byte[] content) throws Exception {
+        String hash = sha256(content);
+        return avatarsDir.resolve("blobs").resolve(hash.substring(0, 2)).resolve(hash + ".png");
+    }
+
+    private void assertNoTempFiles() throws Exception {
+        try (Stream<Path> files = Files.walk(avatarsDir)) {
+            assertTrue(files.noneMatch(path -> path.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    private static MockMultipartFile file(byte[] content) {
+        return new MockMultipartFile("file", "avatar.png", "image/png", content);
+    }
+
+    private static String sha256(byte[] content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+}
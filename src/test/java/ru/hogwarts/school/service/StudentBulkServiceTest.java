@@ -0,0 +1,88 @@
+package ru.hogwarts.school.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repositories.StudentRepository;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class StudentBulkServiceTest {
+
+    private final StudentRepository studentRepository = mock(StudentRepository.class);
+    private final StudentStatistics studentStatistics = mock(StudentStatistics.class);
+    private final EntityManager entityManager = mock(EntityManager.class);
+
+    private final StudentBulkService studentBulkService = new StudentBulkService(studentRepository, studentStatistics,
+            mock(StudentAgeIndex.class), mock(EntityCache.class), mock(SearchIndex.class), mock(ChangeFeed.class),
+            entityManager, new TransactionTemplate(mock(PlatformTransactionManager.class)), new ObjectMapper(), 1000);
+
+    @Test
+    @DisplayName("Строка пакетного редактирования заменяет студента целиком")
+    void testUpdateStudents_ReplacesAllFields() throws Exception {
+        Student first = student(5, "Студент 5", 11, faculty(1));
+        Student second = student(6, "Студент 6", 13, faculty(1));
+        when(studentRepository.findAllById(any())).thenReturn(List.of(first, second));
+        when(entityManager.getReference(eq(Faculty.class), anyLong()))
+                .thenAnswer(invocation -> faculty(invocation.<Long>getArgument(1)));
+
+        StudentBulkService.BulkReport report = studentBulkService.updateStudents(ndjson(
+                "{\"id\":5,\"age\":12}",
+                "{\"id\":6,\"name\":\"Новое имя\",\"faculty\":{\"id\":2}}"));
+
+        assertEquals(2, report.written());
+        assertNull(first.getName());
+        assertEquals(12, first.getAge());
+        assertNull(first.getFaculty());
+        assertEquals("Новое имя", second.getName());
+        assertNull(second.getAge());
+        assertEquals(2L, second.getFaculty().getId());
+        verify(studentStatistics).onUpdated(new StudentStatistics.Entry(11, 1L), new StudentStatistics.Entry(12, null));
+        verify(studentStatistics).onUpdated(new StudentStatistics.Entry(13, 1L), new StudentStatistics.Entry(null, 2L));
+    }
+
+    @Test
+    @DisplayName("Пакетное редактирование несуществующего студента")
+    void testUpdateStudents_NotFound() throws Exception {
+        when(studentRepository.findAllById(any())).thenReturn(List.of());
+
+        StudentBulkService.BulkReport report = studentBulkService.updateStudents(ndjson("{\"id\":7,\"name\":\"Нет такого\"}"));
+
+        assertEquals(0, report.written());
+        assertEquals(1, report.failed());
+        assertEquals(List.of("Студент с id 7 не найден"), report.chunks().get(0).errors());
+        verifyNoInteractions(studentStatistics);
+    }
+
+    private static Student student(long id, String name, Integer age, Faculty faculty) {
+        Student student = new Student();
+        student.setId(id);
+        student.setName(name);
+        student.setAge(age);
+        student.setFaculty(faculty);
+        return student;
+    }
+
+    private static Faculty faculty(long id) {
+        Faculty faculty = new Faculty();
+        faculty.setId(id);
+        return faculty;
+    }
+
+    private static ByteArrayInputStream ndjson(String... lines) {
+        return new ByteArrayInputStream((String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,31 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class StudentServiceTest {
+
+    @Test
+    @DisplayName("Верхняя граница диапазона имён по началу имени")
+    void testPrefixUpperBound() {
+        assertEquals("Гас", StudentService.prefixUpperBound("Гар"));
+        assertEquals("Ab", StudentService.prefixUpperBound("Aa"));
+    }
+
+    @Test
+    @DisplayName("Верхняя граница считается по кодовым точкам, а не по char")
+    void testPrefixUpperBound_CodePoints() {
+        // за U+FFFF идёт U+10000, а не переполнение в U+0000
+        assertEquals("a𐀀", StudentService.prefixUpperBound("a￿"));
+        // суррогатный диапазон не кодовые точки, за U+D7FF сразу U+E000
+        assertEquals("a", StudentService.prefixUpperBound("a퟿"));
+        // символ вне BMP увеличивается целиком: U+1F600 -> U+1F601
+        assertEquals("a😁", StudentService.prefixUpperBound("a😀"));
+        // хвост из U+10FFFF отбрасывается
+        assertEquals("b", StudentService.prefixUpperBound("a􏿿"));
+        assertNull(StudentService.prefixUpperBound("􏿿"));
+    }
+}
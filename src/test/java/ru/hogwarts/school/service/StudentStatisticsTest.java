@@ -0,0 +1,64 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import ru.hogwarts.school.repositories.StudentRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class StudentStatisticsTest {
+
+    private final StudentRepository studentRepository = mock(StudentRepository.class);
+    private final StudentStatistics statistics = new StudentStatistics(studentRepository);
+
+    @Test
+    @DisplayName("Сверка по базе заменяет счётчики")
+    void testReconcile() {
+        statistics.onCreated(new StudentStatistics.Entry(99, 9L));
+        when(studentRepository.countByAgeAndFaculty()).thenReturn(rows(new Object[]{12, 1L, 2L}));
+
+        statistics.reconcile();
+
+        StudentStatistics.Snapshot snapshot = statistics.getSnapshot();
+        assertEquals(2, snapshot.count());
+        assertEquals(12.0, snapshot.averageAge());
+        assertEquals(Map.of(12, 2L), snapshot.ageHistogram());
+        assertEquals(Map.of(1L, 2L), snapshot.facultyCounts());
+    }
+
+    @Test
+    @DisplayName("Изменения, пришедшие во время запроса сверки, не теряются")
+    void testReconcile_KeepsChangesDuringQuery() {
+        StudentStatistics.Entry existing = new StudentStatistics.Entry(12, 1L);
+        statistics.onCreated(existing);
+        // коммит нового студента и перевод существующего приходят, пока база считает группы без них
+        when(studentRepository.countByAgeAndFaculty()).thenAnswer(invocation -> {
+            statistics.onCreated(new StudentStatistics.Entry(14, 2L));
+            statistics.onUpdated(existing, new StudentStatistics.Entry(13, 1L));
+            return rows(new Object[]{12, 1L, 1L});
+        });
+
+        statistics.reconcile();
+
+        StudentStatistics.Snapshot snapshot = statistics.getSnapshot();
+        assertEquals(2, snapshot.count());
+        assertEquals(13.5, snapshot.averageAge());
+        assertEquals(Map.of(13, 1L, 14, 1L), snapshot.ageHistogram());
+        assertEquals(Map.of(1L, 1L, 2L, 1L), snapshot.facultyCounts());
+
+        // следующая сверка работает без уже наложенных изменений
+        when(studentRepository.countByAgeAndFaculty()).thenReturn(rows(new Object[]{13, 1L, 1L}, new Object[]{14, 2L, 1L}));
+        statistics.reconcile();
+        assertEquals(2, statistics.getCount());
+    }
+
+    private static List<Object[]> rows(Object[]... rows) {
+        return new ArrayList<>(List.of(rows));
+    }
+}
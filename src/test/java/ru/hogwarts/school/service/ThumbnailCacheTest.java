@@ -0,0 +1,48 @@
+package ru.hogwarts.school.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ThumbnailCacheTest {
+
+    private final ThumbnailCache thumbnailCache = new ThumbnailCache(1 << 20, 300);
+
+    @Test
+    @DisplayName("Сброс миниатюр студента убирает все его варианты и не трогает чужие")
+    void testInvalidateStudent() {
+        put(1L, 100, false);
+        put(1L, 256, true);
+        put(2L, 100, false);
+
+        thumbnailCache.invalidateStudent(1L);
+
+        assertNull(thumbnailCache.get(1L, 100, false));
+        assertNull(thumbnailCache.get(1L, 256, true));
+        assertNotNull(thumbnailCache.get(2L, 100, false));
+    }
+
+    @Test
+    @DisplayName("Миниатюры, записанные после сброса, снова сбрасываются")
+    void testInvalidateStudent_AfterReput() {
+        put(1L, 100, false);
+        thumbnailCache.invalidateStudent(1L);
+        put(1L, 100, false);
+        assertNotNull(thumbnailCache.get(1L, 100, false));
+
+        thumbnailCache.invalidateStudent(1L);
+        assertNull(thumbnailCache.get(1L, 100, false));
+
+        put(1L, 100, false);
+        thumbnailCache.invalidateAll();
+        put(1L, 256, false);
+        thumbnailCache.invalidateStudent(1L);
+        assertNull(thumbnailCache.get(1L, 256, false));
+    }
+
+    private void put(long studentId, int width, boolean crop) {
+        thumbnailCache.put(studentId, width, crop, new byte[]{1, 2, 3}, "image/png", "abc");
+    }
+}